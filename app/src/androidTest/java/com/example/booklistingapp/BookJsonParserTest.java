@@ -0,0 +1,113 @@
+package com.example.booklistingapp;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link BookJsonParser} on responses with missing, null or reordered fields,
+ * none of which may fail the rest of the response.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookJsonParserTest {
+
+    @Test
+    public void missingId_keepsBook() throws Exception {
+        List<Book> books = parse("{\"items\":[{\"volumeInfo\":{\"title\":\"No id\"}}]}");
+
+        assertEquals(1, books.size());
+        assertNull(books.get(0).getId());
+        assertEquals("No id", books.get(0).getTitle());
+    }
+
+    @Test
+    public void volumeInfoBeforeId_keepsId() throws Exception {
+        List<Book> books = parse("{\"items\":[{\"volumeInfo\":{\"title\":\"Late id\","
+                + "\"description\":\"Read first\"},\"id\":\"abc\"}]}");
+
+        assertEquals(1, books.size());
+        assertEquals("abc", books.get(0).getId());
+        assertEquals("Late id", books.get(0).getTitle());
+        assertEquals("Read first", books.get(0).getDescription());
+    }
+
+    @Test
+    public void nullFields_areLeftEmpty() throws Exception {
+        List<Book> books = parse("{\"items\":[{\"id\":\"n\",\"volumeInfo\":{\"title\":\"Nulls\","
+                + "\"authors\":null,\"publishedDate\":null,\"description\":null,"
+                + "\"imageLinks\":null}}]}");
+
+        assertEquals(1, books.size());
+        assertEmptyFields(books.get(0));
+    }
+
+    @Test
+    public void missingFields_areLeftEmpty() throws Exception {
+        List<Book> books = parse("{\"items\":[{\"id\":\"m\",\"volumeInfo\":{\"title\":\"Bare\"}},"
+                + "{\"id\":\"next\",\"volumeInfo\":{\"title\":\"Next\"}}]}");
+
+        assertEquals(2, books.size());
+        assertEmptyFields(books.get(0));
+        assertEquals("next", books.get(1).getId());
+    }
+
+    @Test
+    public void nullAuthorInArray_isSkipped() throws Exception {
+        List<Book> books = parse("{\"items\":[{\"id\":\"a\",\"volumeInfo\":{"
+                + "\"authors\":[\"Ann Lee\",null,\"Bob Stone\"]}}]}");
+
+        assertEquals("Ann Lee, Bob Stone", books.get(0).getAuthor());
+    }
+
+    @Test
+    public void onlyLargeThumbnail_isUsed() throws Exception {
+        List<Book> books = parse("{\"items\":[{\"id\":\"t\",\"volumeInfo\":{"
+                + "\"imageLinks\":{\"thumbnail\":\"http://example.com/t.png\"}}}]}");
+
+        assertEquals("http://example.com/t.png", books.get(0).getImageUrl());
+    }
+
+    @Test
+    public void truncatedBody_keepsBooksParsedBeforeIt() throws Exception {
+        String json = "{\"items\":[{\"id\":\"1\",\"volumeInfo\":{\"title\":\"One\"}},"
+                + "{\"id\":\"2\",\"volumeInfo\":{\"title\":\"Two\"}},"
+                + "{\"id\":\"3\",\"volumeInfo\":{\"title\":\"Thr";
+        List<Book> books = new ArrayList<>();
+        try {
+            BookJsonParser.readBooks(stream(json), books);
+            fail("The truncated body was parsed");
+        } catch (IOException | IllegalStateException e) {
+            // Expected, the caller decides what to do with a partial list.
+        }
+
+        assertEquals(2, books.size());
+        assertEquals("One", books.get(0).getTitle());
+        assertEquals("Two", books.get(1).getTitle());
+    }
+
+    private static void assertEmptyFields(Book book) {
+        assertEquals("", book.getAuthor());
+        assertEquals("", book.getPublishDate());
+        assertEquals("", book.getDescription());
+        assertEquals("", book.getImageUrl());
+    }
+
+    private static List<Book> parse(String json) throws IOException {
+        List<Book> books = new ArrayList<>();
+        BookJsonParser.readBooks(stream(json), books);
+        return books;
+    }
+
+    private static ByteArrayInputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(Charset.forName("UTF-8")));
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.booklistingapp;
+
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link BulkQueryExecutor} sending its requests over HTTP to a local
+ * {@link MockBooksServer}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkQueryServerTest {
+
+    private MockBooksServer mServer;
+
+    private BulkQueryExecutor mExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockBooksServer();
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mExecutor != null) {
+            mExecutor.cancel();
+            mExecutor.shutdown();
+        }
+        mServer.shutdown();
+    }
+
+    @Test
+    public void retries_areRateLimited() throws Exception {
+        // Three queries fail once with a 503 that asks for no backoff.
+        mServer.setErrorStatus("503 Service Unavailable", 0);
+        mServer.failNextRequests(3);
+        mExecutor = new BulkQueryExecutor(mServer.getUrl(), 10, 4, 10, 1);
+        long start = SystemClock.elapsedRealtime();
+
+        Results results = new Results();
+        mExecutor.execute(queries(10), results);
+        assertTrue("The batch didn't finish", results.finished.await(10, TimeUnit.SECONDS));
+
+        long elapsedMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(10, results.books.get());
+        assertEquals(13, mServer.getRequestCount());
+        assertEquals(13, mExecutor.getAttemptCount());
+        // 13 requests at 10 per second, after a burst of one.
+        assertTrue("13 requests took " + elapsedMillis + " ms", elapsedMillis >= 1100);
+    }
+
+    @Test
+    public void cancel_abortsRequestsInFlight() throws Exception {
+        mServer.setLatency(5000, 0);
+        mExecutor = new BulkQueryExecutor(mServer.getUrl(), 10, 4, 1, 1);
+        Results results = new Results();
+        mExecutor.execute(queries(10), results);
+        while (mServer.getRequestCount() == 0) {
+            SystemClock.sleep(5);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        mExecutor.cancel();
+
+        assertTrue("The batch didn't finish",
+                results.finished.await(1000, TimeUnit.MILLISECONDS));
+        long elapsedMillis = SystemClock.elapsedRealtime() - start;
+        assertTrue("Cancelling took " + elapsedMillis + " ms", elapsedMillis < 1000);
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals("Cancelled queries were reported", 0, results.count.get());
+    }
+
+    private static List<String> queries(int count) {
+        List<String> queries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            queries.add("bulk " + i);
+        }
+        return queries;
+    }
+
+    /**
+     * Counts the results of a batch, and those that found books.
+     */
+    private static final class Results implements BulkQueryExecutor.Callback {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        final AtomicInteger books = new AtomicInteger();
+
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        @Override
+        public void onResult(String query, List<Book> books) {
+            count.incrementAndGet();
+            if (books != null && !books.isEmpty()) {
+                this.books.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onFinished() {
+            finished.countDown();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.booklistingapp;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Load and soak tests of the fetch, parse and cache path against a local
+ * {@link MockBooksServer}, failing when a run is slower, less reliable or uses more
+ * memory than its thresholds allow.
+ * <p>
+ * The durations and thresholds can be set with instrumentation arguments, for example:
+ * <pre>
+ * adb shell am instrument -w -e class com.example.booklistingapp.FetchLoadTest \
+ *     -e soakSeconds 1800 -e maxP95Millis 800 \
+ *     com.example.booklistingapp.test/android.support.test.runner.AndroidJUnitRunner
+ * </pre>
+ * The soak test only runs when "soakSeconds" is given. Each report is written to the
+ * app's external files directory as load-&lt;run&gt;.txt.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class FetchLoadTest {
+
+    private MockBooksServer mServer;
+
+    private LoadHarness mHarness;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockBooksServer();
+        mServer.start();
+        mHarness = new LoadHarness(InstrumentationRegistry.getTargetContext(), mServer);
+        mHarness.setConcurrency(getInt("concurrency", 8));
+
+        // Pages expire from the memory cache right away, so repeated queries go to the
+        // server and are revalidated instead of being answered from memory.
+        BookCache.clear();
+        BookCache.setTtl(1, TimeUnit.SECONDS);
+        QueryUtils.getRevalidationCache().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BookCache.setTtl(10, TimeUnit.MINUTES);
+        BookCache.clear();
+        QueryUtils.getRevalidationCache().clear();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void steadyLoad_meetsThresholds() throws Exception {
+        mServer.setLatency(20, 20);
+        mHarness.setDuration(5, getInt("loadSeconds", 30), TimeUnit.SECONDS);
+
+        LoadHarness.Report report = mHarness.run("steady");
+        assertThresholds(report);
+    }
+
+    @Test
+    public void unreliableServer_isRetriedWithinThresholds() throws Exception {
+        mServer.setLatency(50, 100);
+        mServer.setErrorRate(0.05);
+        mServer.setSlowDrip(0.05, 512, 25);
+        mHarness.setDuration(5, getInt("loadSeconds", 30), TimeUnit.SECONDS);
+
+        LoadHarness.Report report = mHarness.run("unreliable");
+        assertThresholds(report);
+        assertTrue("No errors were served\n" + report, report.serverErrors > 0);
+    }
+
+    @Test
+    public void soak_staysStable() throws Exception {
+        int soakSeconds = getInt("soakSeconds", 0);
+        assumeTrue(soakSeconds > 0);
+        mServer.setLatency(50, 150);
+        mServer.setErrorRate(0.01);
+        mServer.setSlowDrip(0.02, 512, 25);
+        mServer.setTotalResults(1000);
+        mHarness.setQueryCount(500);
+        mHarness.setProfile(FetchProfile.Profile.RICH);
+        mHarness.setDuration(30, soakSeconds, TimeUnit.SECONDS);
+
+        LoadHarness.Report report = mHarness.run("soak");
+        assertThresholds(report);
+        double maxDrift = getDouble("maxDrift", 2.0);
+        assertTrue("p95 drifted by " + report.getDrift() + " > " + maxDrift + "\n" + report,
+                report.getDrift() <= maxDrift);
+    }
+
+    /**
+     * Fails the test if the report is past one of the thresholds.
+     */
+    private static void assertThresholds(LoadHarness.Report report) {
+        long maxP95Millis = getInt("maxP95Millis", 1500);
+        double minThroughput = getDouble("minThroughput", 5);
+        double maxErrorRate = getDouble("maxErrorRate", 0.01);
+        long maxHeapGrowthKb = getInt("maxHeapGrowthKb", 8 * 1024);
+
+        assertEquals("Loads hung\n" + report, 0, report.timeouts);
+        assertTrue("p95 " + report.getP95Millis() + " ms > " + maxP95Millis + " ms\n"
+                + report, report.getP95Millis() <= maxP95Millis);
+        assertTrue("Throughput " + report.getThroughput() + " < " + minThroughput + "\n"
+                + report, report.getThroughput() >= minThroughput);
+        assertTrue("Error rate " + report.getErrorRate() + " > " + maxErrorRate + "\n"
+                + report, report.getErrorRate() <= maxErrorRate);
+        assertTrue("Heap grew by " + report.heapGrowthBytes / 1024 + " KB > "
+                + maxHeapGrowthKb + " KB\n" + report,
+                report.heapGrowthBytes / 1024 <= maxHeapGrowthKb);
+        assertEquals("Loaders leaked\n" + report, 0, report.leakedLoaders);
+    }
+
+    private static int getInt(String name, int defaultValue) {
+        String value = InstrumentationRegistry.getArguments().getString(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static double getDouble(String name, double defaultValue) {
+        String value = InstrumentationRegistry.getArguments().getString(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.booklistingapp;
+
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the retries, backoff, circuit breaker and hedged requests of the
+ * {@link FetchPolicy}, against a local {@link MockBooksServer}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FetchPolicyTest {
+
+    private MockBooksServer mServer;
+
+    /**
+     * Number of fetches made so far, each for a URL of its own.
+     */
+    private int mFetches;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockBooksServer();
+        mServer.start();
+        QueryUtils.getRevalidationCache().clear();
+        FetchPolicy.getCircuitBreaker().reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FetchPolicy.setHedgingEnabled(false);
+        FetchPolicy.getCircuitBreaker().reset();
+        QueryUtils.getRevalidationCache().clear();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void serverErrors_areRetried() throws Exception {
+        mServer.failNextRequests(FetchPolicy.getMaxAttempts() - 1);
+
+        List<Book> books = fetch();
+
+        assertNotNull("The fetch gave up before its last attempt", books);
+        assertEquals(10, books.size());
+        assertEquals(FetchPolicy.getMaxAttempts(), mServer.getRequestCount());
+    }
+
+    @Test
+    public void tooManyRequests_waitsForRetryAfter() throws Exception {
+        mServer.setErrorStatus("429 Too Many Requests", 1);
+        mServer.failNextRequests(1);
+        long start = SystemClock.elapsedRealtime();
+
+        List<Book> books = fetch();
+
+        long elapsedMillis = SystemClock.elapsedRealtime() - start;
+        assertNotNull(books);
+        assertEquals(2, mServer.getRequestCount());
+        assertTrue("Retried after " + elapsedMillis + " ms", elapsedMillis >= 1000);
+    }
+
+    @Test
+    public void clientError_isNotRetried() throws Exception {
+        mServer.setErrorStatus("400 Bad Request", -1);
+        mServer.failNextRequests(1);
+
+        assertNull(fetch());
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, FetchPolicy.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void failedFetch_countsAsOneCircuitFailure() throws Exception {
+        // Retry right away, so the fetches don't wait out their backoff.
+        mServer.setErrorStatus("503 Service Unavailable", 0);
+        mServer.setErrorRate(1);
+
+        // Each fetch makes every attempt, but only counts once against the circuit.
+        for (int i = 1; i < 5; i++) {
+            assertNull(fetch());
+            assertEquals(i * FetchPolicy.getMaxAttempts(), mServer.getRequestCount());
+            assertEquals("Circuit opened after " + i + " fetches",
+                    CircuitBreaker.State.CLOSED, FetchPolicy.getCircuitBreaker().getState());
+        }
+        assertNull(fetch());
+        assertEquals(CircuitBreaker.State.OPEN, FetchPolicy.getCircuitBreaker().getState());
+
+        // While the circuit is open, fetches are refused without a request.
+        long requests = mServer.getRequestCount();
+        mServer.setErrorRate(0);
+        assertNull(fetch());
+        assertEquals(requests, mServer.getRequestCount());
+    }
+
+    @Test
+    public void slowResponse_isHedged() throws Exception {
+        FetchPolicy.setHedgingEnabled(true);
+        // Hedging waits for the p95 latency of enough fast attempts.
+        for (int i = 0; i < 30; i++) {
+            assertNotNull(fetch());
+        }
+        long requests = mServer.getRequestCount();
+        mServer.stallNextRequests(1, 5000);
+        long start = SystemClock.elapsedRealtime();
+
+        List<Book> books = fetch();
+
+        long elapsedMillis = SystemClock.elapsedRealtime() - start;
+        assertNotNull(books);
+        assertEquals(10, books.size());
+        assertEquals("No hedged request was sent", requests + 2, mServer.getRequestCount());
+        assertTrue("The stalled request won after " + elapsedMillis + " ms",
+                elapsedMillis < 2500);
+    }
+
+    /**
+     * Fetches a page of a query of its own, so it is never answered from a cache.
+     */
+    private List<Book> fetch() {
+        mFetches++;
+        return QueryUtils.fetchBookData(mServer.getUrl() + "?q=policy" + mFetches
+                + "&maxResults=10");
+    }
+}
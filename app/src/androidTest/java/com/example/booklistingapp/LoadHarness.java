@@ -0,0 +1,482 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.content.Loader;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the load path of the app, from the {@link BookLoader} through the
+ * {@link LoadingEngine}, the caches, {@link QueryUtils} and the parser, with concurrent
+ * searches for a sustained period, and reports what it measured.
+ * <p>
+ * Each worker thread runs one load at a time, like a user scrolling through results:
+ * queries are picked so that a few of them are frequent, and a load asks for the first
+ * pages of its query or for deeper ones. Loaders are started and reset on the main thread
+ * as the loader manager would. The heap is sampled during the run, and every loader must
+ * be collectable once it has been reset.
+ */
+final class LoadHarness {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = LoadHarness.class.getName();
+
+    /**
+     * Time a single load may take before it counts as hung, in milliseconds.
+     */
+    private static final long LOAD_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    /**
+     * Time between two samples of the heap, in milliseconds.
+     */
+    private static final long HEAP_SAMPLE_MILLIS = 100;
+
+    /**
+     * Number of recent loads the latency percentiles are computed over.
+     */
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    /**
+     * Number of recent loaders watched for leaks.
+     */
+    private static final int MAX_WATCHED_LOADERS = 1024;
+
+    /**
+     * Returned by {@link #load} when the loader didn't deliver in time.
+     */
+    private static final List<Book> TIMED_OUT = new ArrayList<>();
+
+    private final Context mContext;
+
+    private final MockBooksServer mServer;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private int mConcurrency = 8;
+
+    private long mWarmupMillis = TimeUnit.SECONDS.toMillis(5);
+
+    private long mDurationMillis = TimeUnit.SECONDS.toMillis(30);
+
+    private int mQueryCount = 50;
+
+    private FetchProfile.Profile mProfile = FetchProfile.Profile.STANDARD;
+
+    /**
+     * What a run measured.
+     */
+    static final class Report {
+        String name;
+        long loads;
+        long failures;
+        long timeouts;
+        long books;
+        double seconds;
+        LatencyHistogram latency;
+        /**
+         * Latencies from the start of a load to its first books, partial or not.
+         */
+        LatencyHistogram firstResultLatency;
+        /**
+         * Latencies of the first and of the last third of the run, to see a drift.
+         */
+        LatencyHistogram firstThirdLatency;
+        LatencyHistogram lastThirdLatency;
+        long heapHighWaterBytes;
+        long heapGrowthBytes;
+        int leakedLoaders;
+        long serverRequests;
+        long serverErrors;
+        long serverNotModified;
+        long serverConnections;
+        long serverBytes;
+
+        double getThroughput() {
+            return seconds == 0 ? 0 : loads / seconds;
+        }
+
+        double getErrorRate() {
+            return loads == 0 ? 0 : (failures + timeouts) / (double) loads;
+        }
+
+        long getP95Millis() {
+            return TimeUnit.NANOSECONDS.toMillis(latency.getPercentileNanos(95));
+        }
+
+        /**
+         * Returns the p95 latency of the last third of the run over the first third's.
+         */
+        double getDrift() {
+            long first = firstThirdLatency.getPercentileNanos(95);
+            return first == 0 ? 1 : lastThirdLatency.getPercentileNanos(95) / (double) first;
+        }
+
+        void dump(Writer writer) {
+            PrintWriter out = new PrintWriter(writer);
+            out.println("run=" + name + " seconds=" + format(seconds));
+            out.println("loads=" + loads + " failures=" + failures + " timeouts=" + timeouts
+                    + " errorRate=" + format(100 * getErrorRate()) + "%"
+                    + " throughput=" + format(getThroughput()) + " loads/s"
+                    + " books=" + format(seconds == 0 ? 0 : books / seconds) + "/s");
+            printLatency(out, "LOAD", latency);
+            printLatency(out, "LOAD_FIRST_RESULT", firstResultLatency);
+            printLatency(out, "LOAD_FIRST_THIRD", firstThirdLatency);
+            printLatency(out, "LOAD_LAST_THIRD", lastThirdLatency);
+            out.println("heapHighWater=" + heapHighWaterBytes / 1024 + " KB"
+                    + " heapGrowth=" + heapGrowthBytes / 1024 + " KB"
+                    + " leakedLoaders=" + leakedLoaders);
+            out.println("serverRequests=" + serverRequests
+                    + " serverErrors=" + serverErrors
+                    + " serverNotModified=" + serverNotModified
+                    + " serverConnections=" + serverConnections
+                    + " serverBytes=" + serverBytes);
+            out.flush();
+            FetchMetrics.dump(writer);
+        }
+
+        @Override
+        public String toString() {
+            StringWriter writer = new StringWriter();
+            dump(writer);
+            return writer.toString();
+        }
+
+        private static void printLatency(PrintWriter out, String name,
+                                         LatencyHistogram histogram) {
+            out.println(name
+                    + " count=" + histogram.getCount()
+                    + " mean=" + toMillis(histogram.getMeanNanos())
+                    + " p50=" + toMillis(histogram.getPercentileNanos(50))
+                    + " p95=" + toMillis(histogram.getPercentileNanos(95))
+                    + " p99=" + toMillis(histogram.getPercentileNanos(99))
+                    + " max=" + toMillis(histogram.getMaxNanos()) + " (ms)");
+        }
+
+        private static String toMillis(long nanos) {
+            return format(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.ROOT, "%.1f", value);
+        }
+    }
+
+    /**
+     * Constructs a new {@link LoadHarness}.
+     *
+     * @param context of the app under test.
+     * @param server  is the endpoint the loads query.
+     */
+    LoadHarness(Context context, MockBooksServer server) {
+        mContext = context;
+        mServer = server;
+    }
+
+    /**
+     * Sets the number of loads running at the same time.
+     */
+    void setConcurrency(int concurrency) {
+        mConcurrency = concurrency;
+    }
+
+    /**
+     * Sets how long loads run before the measurements start, to fill the caches and warm
+     * up the code, and how long they are measured.
+     */
+    void setDuration(long warmup, long duration, TimeUnit unit) {
+        mWarmupMillis = unit.toMillis(warmup);
+        mDurationMillis = unit.toMillis(duration);
+    }
+
+    /**
+     * Sets the number of distinct queries searched for.
+     */
+    void setQueryCount(int queryCount) {
+        mQueryCount = queryCount;
+    }
+
+    /**
+     * Sets the page size and the number of pages of each load.
+     */
+    void setProfile(FetchProfile.Profile profile) {
+        mProfile = profile;
+    }
+
+    /**
+     * Runs the loads, then waits for the engine to go idle and checks for leaks.
+     */
+    Report run(String name) throws InterruptedException {
+        final Report report = new Report();
+        report.name = name;
+        report.latency = new LatencyHistogram(WINDOW_SIZE);
+        report.firstResultLatency = new LatencyHistogram(WINDOW_SIZE);
+        report.firstThirdLatency = new LatencyHistogram(WINDOW_SIZE);
+        report.lastThirdLatency = new LatencyHistogram(WINDOW_SIZE);
+
+        final AtomicLong heapHighWater = new AtomicLong();
+        final List<WeakReference<BookLoader>> watched = new ArrayList<>();
+        final long measureStart = SystemClock.elapsedRealtime() + mWarmupMillis;
+        final long measureEnd = measureStart + mDurationMillis;
+        final long thirdMillis = mDurationMillis / 3;
+        final AtomicLong loads = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong books = new AtomicLong();
+
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Runtime runtime = Runtime.getRuntime();
+                while (!Thread.currentThread().isInterrupted()) {
+                    long used = runtime.totalMemory() - runtime.freeMemory();
+                    if (used > heapHighWater.get()) {
+                        heapHighWater.set(used);
+                    }
+                    SystemClock.sleep(HEAP_SAMPLE_MILLIS);
+                }
+            }
+        }, "LoadHarness heap");
+        sampler.start();
+
+        Thread[] workers = new Thread[mConcurrency];
+        for (int i = 0; i < workers.length; i++) {
+            final Random random = new Random(i);
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long now;
+                    while ((now = SystemClock.elapsedRealtime()) < measureEnd) {
+                        BookLoader loader = newLoader(random);
+                        long start = System.nanoTime();
+                        long[] firstResultNanos = new long[1];
+                        List<Book> result;
+                        try {
+                            result = load(loader, firstResultNanos);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        long elapsed = System.nanoTime() - start;
+                        synchronized (watched) {
+                            watched.add(new WeakReference<>(loader));
+                            if (watched.size() > MAX_WATCHED_LOADERS) {
+                                watched.remove(0);
+                            }
+                        }
+                        if (now < measureStart) {
+                            continue;
+                        }
+                        loads.incrementAndGet();
+                        if (result == TIMED_OUT) {
+                            timeouts.incrementAndGet();
+                        } else if (result == null) {
+                            failures.incrementAndGet();
+                        } else {
+                            books.addAndGet(result.size());
+                        }
+                        report.latency.record(elapsed);
+                        if (firstResultNanos[0] != 0) {
+                            report.firstResultLatency.record(firstResultNanos[0] - start);
+                        }
+                        if (now < measureStart + thirdMillis) {
+                            report.firstThirdLatency.record(elapsed);
+                        } else if (now >= measureEnd - thirdMillis) {
+                            report.lastThirdLatency.record(elapsed);
+                        }
+                    }
+                }
+            }, "LoadHarness worker #" + i);
+            workers[i].start();
+        }
+
+        // The caches are full by the end of the warmup, the heap should stay about the
+        // same from there.
+        SystemClock.sleep(Math.max(0, measureStart - SystemClock.elapsedRealtime()));
+        long baselineHeap = collectGarbage();
+        long serverRequests = mServer.getRequestCount();
+        long serverErrors = mServer.getErrorCount();
+        long serverNotModified = mServer.getNotModifiedCount();
+        long serverConnections = mServer.getConnectionCount();
+        long serverBytes = mServer.getBytesSent();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        report.seconds = mDurationMillis / 1000.0;
+        report.loads = loads.get();
+        report.failures = failures.get();
+        report.timeouts = timeouts.get();
+        report.books = books.get();
+        report.serverRequests = mServer.getRequestCount() - serverRequests;
+        report.serverErrors = mServer.getErrorCount() - serverErrors;
+        report.serverNotModified = mServer.getNotModifiedCount() - serverNotModified;
+        report.serverConnections = mServer.getConnectionCount() - serverConnections;
+        report.serverBytes = mServer.getBytesSent() - serverBytes;
+
+        awaitEngineIdle();
+        sampler.interrupt();
+        sampler.join();
+        report.heapHighWaterBytes = heapHighWater.get();
+        report.heapGrowthBytes = collectGarbage() - baselineHeap;
+        synchronized (watched) {
+            for (WeakReference<BookLoader> reference : watched) {
+                if (reference.get() != null) {
+                    report.leakedLoaders++;
+                }
+            }
+        }
+
+        Log.i(LOG_TAG, report.toString());
+        writeReport(report);
+        return report;
+    }
+
+    /**
+     * Returns a loader of a random query. A few queries make most of the searches, and
+     * most loads ask for the first pages.
+     */
+    private BookLoader newLoader(Random random) {
+        double skewed = Math.pow(random.nextDouble(), 3);
+        String query = "load query " + (int) (skewed * mQueryCount);
+        int load = random.nextInt(4) == 0 ? 1 + random.nextInt(3) : 0;
+        int startIndex = load * mProfile.pagesPerLoad * mProfile.pageSize;
+
+        // The same parameters as the app's requests, on the mock endpoint.
+        List<String> pageUrls = new ArrayList<>(mProfile.pagesPerLoad);
+        for (int page = 0; page < mProfile.pagesPerLoad; page++) {
+            pageUrls.add(Uri.parse(mServer.getUrl()).buildUpon()
+                    .appendQueryParameter("q", query)
+                    .appendQueryParameter("startIndex",
+                            String.valueOf(startIndex + page * mProfile.pageSize))
+                    .appendQueryParameter("maxResults", String.valueOf(mProfile.pageSize))
+                    .appendQueryParameter("fields", mProfile.getFields())
+                    .toString());
+        }
+        return new BookLoader(mContext, pageUrls, startIndex, mProfile.pageSize);
+    }
+
+    /**
+     * Starts the loader on the main thread and waits for its result, then resets it.
+     *
+     * @param firstResultNanos receives the time the first books were delivered.
+     * @return the books, null if the load failed, or {@link #TIMED_OUT}.
+     */
+    private List<Book> load(final BookLoader loader, final long[] firstResultNanos)
+            throws InterruptedException {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final List<List<Book>> result = new ArrayList<>(1);
+        final Loader.OnLoadCompleteListener<List<Book>> listener =
+                new Loader.OnLoadCompleteListener<List<Book>>() {
+                    @Override
+                    public void onLoadComplete(Loader<List<Book>> source, List<Book> data) {
+                        if (data != null && firstResultNanos[0] == 0) {
+                            firstResultNanos[0] = System.nanoTime();
+                        }
+                        // Partial results of the first page come before the result.
+                        if (delivered.getCount() > 0 && !loader.isPartial()) {
+                            result.add(data);
+                            delivered.countDown();
+                        }
+                    }
+                };
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loader.registerListener(0, listener);
+                loader.startLoading();
+            }
+        });
+        boolean completed = delivered.await(LOAD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        final CountDownLatch released = new CountDownLatch(1);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loader.stopLoading();
+                loader.reset();
+                loader.unregisterListener(listener);
+                released.countDown();
+            }
+        });
+        released.await();
+        return completed ? result.get(0) : TIMED_OUT;
+    }
+
+    /**
+     * Waits until every task of the engine has run, so no finished load is held by one.
+     */
+    private static void awaitEngineIdle() {
+        long deadline = SystemClock.elapsedRealtime() + LOAD_TIMEOUT_MILLIS;
+        while (SystemClock.elapsedRealtime() < deadline) {
+            boolean idle = true;
+            for (LoadingEngine.Pool pool : LoadingEngine.Pool.values()) {
+                if (LoadingEngine.getQueueDepth(pool) > 0
+                        || LoadingEngine.getActiveCount(pool) > 0) {
+                    idle = false;
+                }
+            }
+            if (idle) {
+                return;
+            }
+            SystemClock.sleep(HEAP_SAMPLE_MILLIS);
+        }
+        Log.e(LOG_TAG, "The loading engine is still busy");
+    }
+
+    /**
+     * Collects the garbage a few times, until weak references are cleared, and returns
+     * the heap in use.
+     */
+    private static long collectGarbage() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            System.runFinalization();
+            SystemClock.sleep(HEAP_SAMPLE_MILLIS);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Writes the report to the app's external files, to be pulled with adb.
+     */
+    private void writeReport(Report report) {
+        File directory = mContext.getExternalFilesDir(null);
+        if (directory == null) {
+            directory = mContext.getFilesDir();
+        }
+        File file = new File(directory, "load-" + report.name + ".txt");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                    Charset.forName("UTF-8"));
+            try {
+                report.dump(writer);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the load report", e);
+        }
+    }
+}
@@ -0,0 +1,569 @@
+package com.example.booklistingapp;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the Google Books volumes endpoint, serving synthetic search results
+ * over plain HTTP on the loopback interface.
+ * <p>
+ * Each page holds the number of volumes asked for with "maxResults", up to the total
+ * number of results of a query, so the last page comes back short like the API's. The
+ * size of the volumes, the latency of responses, and the share of failed responses, of
+ * bodies that trickle in slowly and of malformed bodies can be changed while it serves.
+ * Connections are kept alive and responses carry an ETag, as the app's client expects.
+ */
+final class MockBooksServer {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = MockBooksServer.class.getName();
+
+    /**
+     * Path of the volumes endpoint, as on the API.
+     */
+    private static final String PATH = "/books/v1/volumes";
+
+    /**
+     * Path the thumbnails of the volumes are served under.
+     */
+    private static final String THUMBNAIL_PATH = "/thumbnails/";
+
+    /**
+     * Every thumbnail is this 1x1 PNG unless set otherwise with {@link #setThumbnailSize},
+     * and clients may cache it for a day.
+     */
+    private static final byte[] THUMBNAIL = {
+            -119, 80, 78, 71, 13, 10, 26, 10, 0, 0, 0, 13, 73, 72, 68, 82, 0, 0, 0, 1, 0, 0,
+            0, 1, 8, 2, 0, 0, 0, -112, 119, 83, -34, 0, 0, 0, 12, 73, 68, 65, 84, 120, -100,
+            99, 56, -45, -31, 2, 0, 3, -68, 1, -103, 58, 122, 96, 67, 0, 0, 0, 0, 73, 69, 78,
+            68, -82, 66, 96, -126};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ServerSocket mServerSocket;
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    private final Set<Socket> mSockets = Collections.synchronizedSet(new HashSet<Socket>());
+
+    private final Random mRandom = new Random();
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mErrorCount = new AtomicLong();
+    private final AtomicLong mNotModifiedCount = new AtomicLong();
+    private final AtomicLong mMalformedCount = new AtomicLong();
+    private final AtomicLong mGzipCount = new AtomicLong();
+    private final AtomicLong mThumbnailCount = new AtomicLong();
+    private final AtomicLong mConnectionCount = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    private volatile long mLatencyMillis;
+    private volatile long mJitterMillis;
+    private volatile double mErrorRate;
+    private volatile String mErrorStatus = "503 Service Unavailable";
+    private volatile long mRetryAfterSeconds = -1;
+    private volatile double mSlowDripRate;
+    private volatile double mMalformedRate;
+    private volatile int mDripChunkBytes = 256;
+    private volatile long mDripDelayMillis = 20;
+    private volatile int mDescriptionLength = 400;
+    private volatile int mTotalResults = 200;
+    private volatile byte[] mThumbnail = THUMBNAIL;
+    private volatile long mThumbnailLatencyMillis;
+
+    /**
+     * Number of the next requests answered with an error, and held before answering.
+     */
+    private final AtomicInteger mFailNext = new AtomicInteger();
+    private final AtomicInteger mStallNext = new AtomicInteger();
+    private volatile long mStallMillis;
+
+    /**
+     * Starts serving on a free port of the loopback interface.
+     */
+    void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 64, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /**
+     * Stops serving and closes every open connection.
+     */
+    void shutdown() throws IOException {
+        mServerSocket.close();
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                socket.close();
+            }
+        }
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the URL of the volumes endpoint, used in place of the API's.
+     */
+    String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + PATH;
+    }
+
+    /**
+     * Returns the URL of a thumbnail, as found in the volumes.
+     */
+    String getThumbnailUrl(String name) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + THUMBNAIL_PATH + name;
+    }
+
+    /**
+     * Delays each response by the latency plus a random jitter of up to the given time.
+     */
+    void setLatency(long latencyMillis, long jitterMillis) {
+        mLatencyMillis = latencyMillis;
+        mJitterMillis = jitterMillis;
+    }
+
+    /**
+     * Serves every thumbnail as a PNG of the given size.
+     */
+    void setThumbnailSize(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, png);
+        bitmap.recycle();
+        mThumbnail = png.toByteArray();
+    }
+
+    /**
+     * Delays each thumbnail response by the given time. The latency of
+     * {@link #setLatency} only applies to the volumes.
+     */
+    void setThumbnailLatency(long latencyMillis) {
+        mThumbnailLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Answers the given share (0 - 1) of the requests with an error, a 503 unless set
+     * otherwise with {@link #setErrorStatus}.
+     */
+    void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    /**
+     * Sets the status line of the error responses, such as "429 Too Many Requests", and
+     * the delay they ask for in a "Retry-After" header, or -1 for none.
+     */
+    void setErrorStatus(String status, long retryAfterSeconds) {
+        mErrorStatus = status;
+        mRetryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Answers the next requests with the error status, whatever the error rate.
+     */
+    void failNextRequests(int count) {
+        mFailNext.set(count);
+    }
+
+    /**
+     * Holds the next requests for the given time, on top of the latency, before
+     * answering them.
+     */
+    void stallNextRequests(int count, long millis) {
+        mStallMillis = millis;
+        mStallNext.set(count);
+    }
+
+    /**
+     * Sends the body of the given share (0 - 1) of the responses in chunks of the given
+     * size, waiting between chunks, like a congested mobile network.
+     */
+    void setSlowDrip(double rate, int chunkBytes, long delayMillis) {
+        mSlowDripRate = rate;
+        mDripChunkBytes = chunkBytes;
+        mDripDelayMillis = delayMillis;
+    }
+
+    /**
+     * Cuts the JSON of the given share (0 - 1) of the responses off halfway, like a
+     * backend failing in the middle of a page. The HTTP response itself is whole.
+     */
+    void setMalformedRate(double rate) {
+        mMalformedRate = rate;
+    }
+
+    /**
+     * Sets the length of the description of each volume, which makes most of its size.
+     */
+    void setDescriptionLength(int length) {
+        mDescriptionLength = length;
+    }
+
+    /**
+     * Sets the number of results of every query.
+     */
+    void setTotalResults(int totalResults) {
+        mTotalResults = totalResults;
+    }
+
+    long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    long getErrorCount() {
+        return mErrorCount.get();
+    }
+
+    long getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    long getMalformedCount() {
+        return mMalformedCount.get();
+    }
+
+    long getGzipCount() {
+        return mGzipCount.get();
+    }
+
+    /**
+     * Returns the number of thumbnail requests, which aren't counted as requests.
+     */
+    long getThumbnailCount() {
+        return mThumbnailCount.get();
+    }
+
+    long getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Closed by shutdown().
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            mSockets.add(socket);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (SocketException | InterruptedException e) {
+                        // The client went away, or the server was shut down.
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Problem serving a connection", e);
+                    } finally {
+                        mSockets.remove(socket);
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            Log.e(LOG_TAG, "Problem closing a connection", e);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Answers the requests of a connection until the client closes it.
+     */
+    private void serve(Socket socket) throws IOException, InterruptedException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        while (true) {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.isEmpty()) {
+                return;
+            }
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                            line.substring(colon + 1).trim());
+                }
+            }
+            if (isThumbnailRequest(requestLine)) {
+                mThumbnailCount.incrementAndGet();
+                writeThumbnail(out);
+            } else {
+                mRequestCount.incrementAndGet();
+                respond(requestLine, headers, out);
+            }
+            if ("close".equalsIgnoreCase(headers.get("connection"))) {
+                return;
+            }
+        }
+    }
+
+    private void respond(String requestLine, Map<String, String> headers, OutputStream out)
+            throws IOException, InterruptedException {
+        long delay = mLatencyMillis;
+        if (mJitterMillis > 0) {
+            delay += (long) (nextDouble() * mJitterMillis);
+        }
+        if (takeOne(mStallNext)) {
+            delay += mStallMillis;
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2 || !parts[1].startsWith(PATH)) {
+            writeHead(out, "404 Not Found", 0, null, false);
+            return;
+        }
+        if (takeOne(mFailNext) || nextDouble() < mErrorRate) {
+            mErrorCount.incrementAndGet();
+            writeHead(out, mErrorStatus, 0, null, false, mRetryAfterSeconds);
+            return;
+        }
+
+        Map<String, String> params = parseQuery(parts[1]);
+        String query = params.containsKey("q") ? params.get("q") : "";
+        int startIndex = parseInt(params.get("startIndex"), 0);
+        int maxResults = parseInt(params.get("maxResults"), 10);
+
+        // Results never change, so the page is its own version.
+        String eTag = "\"" + Integer.toHexString((query + ":" + startIndex + ":" + maxResults
+                + ":" + mDescriptionLength + ":" + mTotalResults).hashCode()) + "\"";
+        if (eTag.equals(headers.get("if-none-match"))) {
+            mNotModifiedCount.incrementAndGet();
+            writeHead(out, "304 Not Modified", -1, eTag, false);
+            return;
+        }
+
+        String page = buildPage(query, startIndex, maxResults);
+        if (nextDouble() < mMalformedRate) {
+            // Cut the JSON off halfway, in a response that is otherwise whole.
+            mMalformedCount.incrementAndGet();
+            page = page.substring(0, page.length() / 2);
+        }
+        byte[] body = page.getBytes(UTF_8);
+        String acceptEncoding = headers.get("accept-encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (gzip) {
+            mGzipCount.incrementAndGet();
+            body = gzip(body);
+        }
+        writeHead(out, "200 OK", body.length, eTag, gzip);
+        if (nextDouble() < mSlowDripRate) {
+            for (int offset = 0; offset < body.length; offset += mDripChunkBytes) {
+                out.write(body, offset, Math.min(mDripChunkBytes, body.length - offset));
+                out.flush();
+                Thread.sleep(mDripDelayMillis);
+            }
+        } else {
+            out.write(body);
+            out.flush();
+        }
+        mBytesSent.addAndGet(body.length);
+    }
+
+    private static void writeHead(OutputStream out, String status, int contentLength,
+                                  String eTag, boolean gzip) throws IOException {
+        writeHead(out, status, contentLength, eTag, gzip, -1);
+    }
+
+    private static boolean isThumbnailRequest(String requestLine) {
+        String[] parts = requestLine.split(" ");
+        return parts.length >= 2 && parts[1].startsWith(THUMBNAIL_PATH);
+    }
+
+    /**
+     * Writes a thumbnail response, which may be cached for a day.
+     */
+    private void writeThumbnail(OutputStream out) throws IOException, InterruptedException {
+        if (mThumbnailLatencyMillis > 0) {
+            Thread.sleep(mThumbnailLatencyMillis);
+        }
+        byte[] thumbnail = mThumbnail;
+        String head = "HTTP/1.1 200 OK\r\n"
+                + "Content-Type: image/png\r\n"
+                + "Content-Length: " + thumbnail.length + "\r\n"
+                + "Cache-Control: public, max-age=86400\r\n"
+                + "\r\n";
+        out.write(head.getBytes(UTF_8));
+        out.write(thumbnail);
+        out.flush();
+        mBytesSent.addAndGet(thumbnail.length);
+    }
+
+    /**
+     * Writes the status line and headers. A negative length sends no Content-Length, for
+     * responses without a body, and a negative delay no Retry-After.
+     */
+    private static void writeHead(OutputStream out, String status, int contentLength,
+                                  String eTag, boolean gzip, long retryAfterSeconds)
+            throws IOException {
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n");
+        head.append("Content-Type: application/json; charset=UTF-8\r\n");
+        if (contentLength >= 0) {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        if (eTag != null) {
+            head.append("ETag: ").append(eTag).append("\r\n");
+        }
+        if (gzip) {
+            head.append("Content-Encoding: gzip\r\n");
+        }
+        if (retryAfterSeconds >= 0) {
+            head.append("Retry-After: ").append(retryAfterSeconds).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(UTF_8));
+        out.flush();
+    }
+
+    /**
+     * Returns the JSON of a page of results, with every field the app requests.
+     */
+    private String buildPage(String query, int startIndex, int maxResults) {
+        int count = Math.max(0, Math.min(maxResults, mTotalResults - startIndex));
+        String safeQuery = query.replaceAll("[^\\p{Alnum} ]", "");
+        StringBuilder json = new StringBuilder(count * (mDescriptionLength + 300));
+        json.append("{\"kind\":\"books#volumes\",\"totalItems\":").append(mTotalResults);
+        if (count > 0) {
+            json.append(",\"items\":[");
+            for (int i = 0; i < count; i++) {
+                int index = startIndex + i;
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("{\"id\":\"").append(safeQuery.hashCode()).append('-')
+                        .append(index).append("\",\"volumeInfo\":{")
+                        .append("\"title\":\"").append(safeQuery).append(" volume ")
+                        .append(index).append("\",")
+                        .append("\"authors\":[\"Author ").append(index % 97).append("\"],")
+                        .append("\"publishedDate\":\"").append(1950 + index % 70)
+                        .append("-01-01\",")
+                        .append("\"description\":\"");
+                // Random words, so the body compresses about as well as real text.
+                Random words = new Random(index);
+                for (int c = 0; c < mDescriptionLength; c++) {
+                    json.append(words.nextInt(6) == 0 ? ' ' : (char) ('a' + words.nextInt(26)));
+                }
+                json.append("\",\"imageLinks\":{")
+                        .append("\"smallThumbnail\":\"").append(getThumbnailUrl("s" + index))
+                        .append("\",")
+                        .append("\"thumbnail\":\"").append(getThumbnailUrl("" + index))
+                        .append("\"}}}");
+            }
+            json.append(']');
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Takes one from the counter if it is positive, returning true if it was.
+     */
+    private static boolean takeOne(AtomicInteger counter) {
+        while (true) {
+            int count = counter.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (counter.compareAndSet(count, count - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private double nextDouble() {
+        synchronized (mRandom) {
+            return mRandom.nextDouble();
+        }
+    }
+
+    /**
+     * Reads a line ending in CRLF, or returns null at the end of the stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                String text = new String(line.toByteArray(), UTF_8);
+                return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+            }
+            line.write(b);
+        }
+        return line.size() == 0 ? null : new String(line.toByteArray(), UTF_8);
+    }
+
+    private static Map<String, String> parseQuery(String target)
+            throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        int question = target.indexOf('?');
+        if (question < 0) {
+            return params;
+        }
+        for (String pair : target.substring(question + 1).split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.booklistingapp;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the HTTP path of {@link QueryUtils} against a local {@link MockBooksServer}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryUtilsTest {
+
+    private MockBooksServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockBooksServer();
+        mServer.start();
+        QueryUtils.getRevalidationCache().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        QueryUtils.getRevalidationCache().clear();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void sequentialFetches_reuseOneConnection() throws Exception {
+        for (int page = 0; page < 5; page++) {
+            List<Book> books = QueryUtils.fetchBookData(mServer.getUrl()
+                    + "?q=reuse&maxResults=10&startIndex=" + page * 10);
+            assertNotNull(books);
+            assertEquals(10, books.size());
+        }
+        assertEquals(5, mServer.getRequestCount());
+        assertEquals("Each fetch opened its own connection", 1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void response_isRequestedGzipped() throws Exception {
+        mServer.setDescriptionLength(2000);
+        long bytesOnWire = FetchMetrics.getBytesOnWire();
+
+        List<Book> books = QueryUtils.fetchBookData(mServer.getUrl() + "?q=gzip&maxResults=20");
+
+        assertNotNull(books);
+        assertEquals(20, books.size());
+        assertEquals(1, mServer.getGzipCount());
+        // The bytes counted on the wire are the compressed bytes the server sent.
+        assertEquals(mServer.getBytesSent(), FetchMetrics.getBytesOnWire() - bytesOnWire);
+        assertTrue("The description was lost", books.get(0).getDescription().length() > 1000);
+    }
+
+    @Test
+    public void unchangedResult_isRevalidated() throws Exception {
+        String url = mServer.getUrl() + "?q=revalidate&maxResults=10";
+        List<Book> first = QueryUtils.fetchBookData(url);
+        long bytesSent = mServer.getBytesSent();
+
+        List<Book> second = QueryUtils.fetchBookData(url);
+
+        assertNotNull(second);
+        assertEquals(first.size(), second.size());
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertEquals("The body was sent again", bytesSent, mServer.getBytesSent());
+    }
+
+    @Test
+    public void malformedResponse_isRetriedAndNeverCached() throws Exception {
+        mServer.setMalformedRate(1);
+        String url = mServer.getUrl() + "?q=malformed&maxResults=20";
+        final AtomicInteger mostShown = new AtomicInteger();
+
+        List<Book> books = QueryUtils.fetchBookData(url, null,
+                new BookJsonParser.ProgressListener() {
+                    @Override
+                    public void onBooksParsed(List<Book> parsed) {
+                        mostShown.set(Math.max(mostShown.get(), parsed.size()));
+                    }
+                });
+
+        assertNull("A malformed response was returned as a result", books);
+        assertTrue("No partial books were shown", mostShown.get() > 0);
+        assertEquals(FetchPolicy.getMaxAttempts(), mServer.getMalformedCount());
+        assertNull("A malformed response was cached", QueryUtils.getRevalidationCache().get(url));
+
+        // With nothing cached, the next fetch downloads the whole page again.
+        mServer.setMalformedRate(0);
+        books = QueryUtils.fetchBookData(url);
+        assertNotNull(books);
+        assertEquals(20, books.size());
+        assertEquals(0, mServer.getNotModifiedCount());
+    }
+}
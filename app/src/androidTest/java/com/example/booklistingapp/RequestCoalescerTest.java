@@ -0,0 +1,116 @@
+package com.example.booklistingapp;
+
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link RequestCoalescer} against a local {@link MockBooksServer}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RequestCoalescerTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private MockBooksServer mServer;
+
+    private ExecutorService mCallers;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockBooksServer();
+        mServer.start();
+        mCallers = Executors.newCachedThreadPool();
+        QueryUtils.getRevalidationCache().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mCallers.shutdownNow();
+        QueryUtils.getRevalidationCache().clear();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void leaderCancels_joinedCallerStillGetsBooks() throws Exception {
+        // The first attempt fails and asks for a one second backoff, which the leader
+        // cancels in the middle of.
+        mServer.setErrorRate(1);
+        mServer.setErrorStatus("503 Service Unavailable", 1);
+        String url = mServer.getUrl() + "?q=leader&maxResults=10";
+
+        CancellationSignal leaderSignal = new CancellationSignal();
+        Future<List<Book>> leader = mCallers.submit(fetch(url, leaderSignal));
+        awaitRequests(1);
+        long saved = RequestCoalescer.getSavedCount();
+        Future<List<Book>> joined = mCallers.submit(fetch(url, new CancellationSignal()));
+        while (RequestCoalescer.getSavedCount() == saved) {
+            SystemClock.sleep(5);
+        }
+        mServer.setErrorRate(0);
+
+        // Cancel the leader the way the PagePrefetcher does: signal, then interrupt.
+        leaderSignal.cancel();
+        leader.cancel(true);
+
+        List<Book> books = joined.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull("The joined caller got no books", books);
+        assertEquals(10, books.size());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void everyCallerCancels_nextCallerStartsNewFetch() throws Exception {
+        mServer.setLatency(500, 0);
+        String url = mServer.getUrl() + "?q=abandoned&maxResults=10";
+
+        CancellationSignal signal = new CancellationSignal();
+        Future<List<Book>> abandoned = mCallers.submit(fetch(url, signal));
+        awaitRequests(1);
+        signal.cancel();
+        assertNull(abandoned.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        long fetches = RequestCoalescer.getFetchCount();
+        List<Book> books = mCallers.submit(fetch(url, new CancellationSignal()))
+                .get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertEquals(fetches + 1, RequestCoalescer.getFetchCount());
+        assertNotNull("The new fetch got no books", books);
+        assertEquals(10, books.size());
+    }
+
+    private static Callable<List<Book>> fetch(final String url,
+                                              final CancellationSignal signal) {
+        return new Callable<List<Book>>() {
+            @Override
+            public List<Book> call() {
+                return RequestCoalescer.fetch(url, signal, null);
+            }
+        };
+    }
+
+    /**
+     * Waits until the server has received the given number of requests.
+     */
+    private void awaitRequests(long count) {
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+        while (mServer.getRequestCount() < count) {
+            assertTrue("The request never reached the server",
+                    SystemClock.elapsedRealtime() < deadline);
+            SystemClock.sleep(5);
+        }
+    }
+}
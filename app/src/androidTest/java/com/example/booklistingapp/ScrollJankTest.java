@@ -0,0 +1,189 @@
+package com.example.booklistingapp;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scroll regression test of the book list, failing when binding rows, delivering pages or
+ * drawing frames takes longer than its thresholds allow while the {@link JankMonitor} is on.
+ * <p>
+ * The thresholds can be set with instrumentation arguments, for example:
+ * <pre>
+ * adb shell am instrument -w -e class com.example.booklistingapp.ScrollJankTest \
+ *     -e maxBindP95Millis 4 -e maxFramesOverBudget 5 \
+ *     com.example.booklistingapp.test/android.support.test.runner.AndroidJUnitRunner
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ScrollJankTest {
+
+    private static final int ROWS = 400;
+
+    private static final int PAGE_SIZE = 40;
+
+    private static final long SCROLL_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private Instrumentation mInstrumentation;
+
+    private BookActivity mActivity;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = InstrumentationRegistry.getTargetContext();
+        // Without a snapshot the activity starts with an empty list.
+        new File(context.getCacheDir(), BookActivity.SNAPSHOT_FILE_NAME).delete();
+
+        // On before the activity resumes, so that its frames are monitored as well.
+        JankMonitor.setEnabled(true);
+        Intent intent = new Intent(context, BookActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        mActivity = (BookActivity) mInstrumentation.startActivitySync(intent);
+        mInstrumentation.waitForIdleSync();
+    }
+
+    @After
+    public void tearDown() {
+        mActivity.finish();
+        mInstrumentation.waitForIdleSync();
+        JankMonitor.setEnabled(BuildConfig.DEBUG);
+    }
+
+    @Test
+    public void scrollingLongList_meetsThresholds() throws Exception {
+        List<List<Book>> pages = buildPages();
+        for (int i = 0; i < pages.size(); i++) {
+            // Later pages are appended to the list, so no query has to be running.
+            final BookLoader loader = new BookLoader(mActivity,
+                    Collections.singletonList("http://127.0.0.1/unused"),
+                    (i + 1) * PAGE_SIZE, PAGE_SIZE);
+            final List<Book> page = pages.get(i);
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mActivity.onLoadFinished(loader, page);
+                }
+            });
+            mInstrumentation.waitForIdleSync();
+        }
+
+        final RecyclerView list = mActivity.findViewById(R.id.list);
+        long overBudgetBefore = JankMonitor.getFramesOverBudgetCount();
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                list.smoothScrollToPosition(ROWS - 1);
+            }
+        });
+        waitForScrollEnd(list);
+        long framesOverBudget = JankMonitor.getFramesOverBudgetCount() - overBudgetBefore;
+
+        assertThresholds(framesOverBudget);
+    }
+
+    /**
+     * Returns pages of books with prepared display models, like the loader delivers them.
+     */
+    private List<List<Book>> buildPages() {
+        BookDisplayModel.Formatter formatter = new BookDisplayModel.Formatter(
+                mActivity.getString(R.string.by_author), mActivity.getString(R.string.released));
+        StringBuilder description = new StringBuilder();
+        while (description.length() < 1000) {
+            description.append("A long description of the book that is cut on the row. ");
+        }
+        List<List<Book>> pages = new ArrayList<>();
+        for (int start = 0; start < ROWS; start += PAGE_SIZE) {
+            List<Book> page = new ArrayList<>(PAGE_SIZE);
+            for (int i = start; i < start + PAGE_SIZE; i++) {
+                page.add(new Book("scroll-" + i, "Title of book " + i, "Author " + (i % 25),
+                        String.valueOf(1980 + i % 40), description.toString(), null));
+            }
+            formatter.prepare(page);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    /**
+     * Waits until the last row is shown and the list has stopped scrolling.
+     */
+    private void waitForScrollEnd(final RecyclerView list) throws InterruptedException {
+        final int[] state = new int[2];
+        long deadline = System.currentTimeMillis() + SCROLL_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    LinearLayoutManager layoutManager =
+                            (LinearLayoutManager) list.getLayoutManager();
+                    state[0] = layoutManager.findLastVisibleItemPosition();
+                    state[1] = list.getScrollState();
+                }
+            });
+            if (state[0] == ROWS - 1 && state[1] == RecyclerView.SCROLL_STATE_IDLE) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        fail("The list didn't reach row " + (ROWS - 1) + ", it is at row " + state[0]);
+    }
+
+    /**
+     * Fails the test if binding, delivering or drawing is past one of the thresholds.
+     * <p>
+     * The histograms keep the most recent events, which are the ones of this scroll.
+     */
+    private static void assertThresholds(long framesOverBudget) {
+        double maxBindP95Millis = getDouble("maxBindP95Millis", 8);
+        double maxDeliveryP95Millis = getDouble("maxDeliveryP95Millis", 16);
+        long maxFramesOverBudget = getInt("maxFramesOverBudget", 15);
+
+        StringWriter report = new StringWriter();
+        JankMonitor.dump(report);
+        double bindP95Millis = getP95Millis(JankMonitor.Kind.BIND);
+        double deliveryP95Millis = getP95Millis(JankMonitor.Kind.DELIVERY);
+        assertTrue("No rows were bound\n" + report,
+                JankMonitor.getHistogram(JankMonitor.Kind.BIND).getCount() > 0);
+        assertTrue("Bind p95 " + bindP95Millis + " ms > " + maxBindP95Millis + " ms\n"
+                + report, bindP95Millis <= maxBindP95Millis);
+        assertTrue("Delivery p95 " + deliveryP95Millis + " ms > " + maxDeliveryP95Millis
+                + " ms\n" + report, deliveryP95Millis <= maxDeliveryP95Millis);
+        assertTrue(framesOverBudget + " frames over budget > " + maxFramesOverBudget + "\n"
+                + report, framesOverBudget <= maxFramesOverBudget);
+    }
+
+    private static double getP95Millis(JankMonitor.Kind kind) {
+        return JankMonitor.getHistogram(kind).getPercentileNanos(95) / 1e6;
+    }
+
+    private static int getInt(String name, int defaultValue) {
+        String value = InstrumentationRegistry.getArguments().getString(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static double getDouble(String name, double defaultValue) {
+        String value = InstrumentationRegistry.getArguments().getString(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+}
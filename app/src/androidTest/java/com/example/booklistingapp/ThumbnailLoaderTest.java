@@ -0,0 +1,201 @@
+package com.example.booklistingapp;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.http.HttpResponseCache;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.ImageView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the thumbnail loads and disk cache of the {@link ThumbnailLoader}, against the
+ * thumbnails of a local {@link MockBooksServer}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailLoaderTest {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private MockBooksServer mServer;
+
+    private Instrumentation mInstrumentation;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockBooksServer();
+        mServer.start();
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mContext = InstrumentationRegistry.getTargetContext();
+        QueryUtils.getRevalidationCache().clear();
+
+        // Loads are skipped until the loader is created.
+        final CountDownLatch initialized = new CountDownLatch(1);
+        ThumbnailLoader.initializeAsync(mContext, new Runnable() {
+            @Override
+            public void run() {
+                initialized.countDown();
+            }
+        });
+        assertTrue("The loader wasn't created",
+                initialized.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        QueryUtils.getRevalidationCache().clear();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void warmedThumbnail_isServedFromDiskCache() throws Exception {
+        // The cache outlives the test, so use a thumbnail it can't hold yet.
+        String url = mServer.getThumbnailUrl("warm" + System.nanoTime());
+        assertTrue(ThumbnailLoader.warmDiskCache(mContext, url) > 0);
+        HttpResponseCache cache = HttpResponseCache.getInstalled();
+        assertNotNull("No disk cache was installed", cache);
+        int hits = cache.getHitCount();
+
+        assertTrue(ThumbnailLoader.warmDiskCache(mContext, url) > 0);
+
+        assertEquals(1, mServer.getThumbnailCount());
+        assertEquals(hits + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void bookResults_stayOutOfDiskCache() throws Exception {
+        ThumbnailLoader.warmDiskCache(mContext, mServer.getThumbnailUrl("api"));
+        HttpResponseCache cache = HttpResponseCache.getInstalled();
+        int requests = cache.getRequestCount();
+        String url = mServer.getUrl() + "?q=uncached&maxResults=10";
+
+        List<Book> first = QueryUtils.fetchBookData(url);
+        List<Book> second = QueryUtils.fetchBookData(url);
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals("The book results went through the thumbnail cache",
+                requests, cache.getRequestCount());
+    }
+
+    @Test
+    public void largeThumbnail_isDecodedAtThumbnailSize() throws Exception {
+        int size = mContext.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+        mServer.setThumbnailSize(size * 4, size * 3);
+        ImageView imageView = newImageView();
+
+        load(imageView, mServer.getThumbnailUrl("large" + System.nanoTime()));
+
+        Bitmap bitmap = ((BitmapDrawable) waitForImage(imageView)).getBitmap();
+        assertEquals(size, bitmap.getWidth());
+        assertTrue("Decoded at " + bitmap.getWidth() + "x" + bitmap.getHeight(),
+                bitmap.getHeight() <= size);
+    }
+
+    @Test
+    public void recycledRow_cancelsItsLoad() throws Exception {
+        mServer.setThumbnailLatency(500);
+        final ImageView recycled = newImageView();
+        final ImageView shown = newImageView();
+        final String recycledUrl = mServer.getThumbnailUrl("recycled" + System.nanoTime());
+        final String shownUrl = mServer.getThumbnailUrl("shown" + System.nanoTime());
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ThumbnailLoader.load(recycled, recycledUrl);
+                ThumbnailLoader.load(shown, shownUrl);
+                // As the adapter does when the row is recycled.
+                ThumbnailLoader.cancel(recycled);
+            }
+        });
+
+        // The row still shown gets its thumbnail, the recycled one never does.
+        waitForImage(shown);
+        Thread.sleep(500);
+        assertNull(getImage(recycled));
+    }
+
+    @Test
+    public void taggedPrefetches_areCancelled() throws Exception {
+        int prefetches = 20;
+        mServer.setThumbnailLatency(1000);
+        String prefix = "prefetch" + System.nanoTime() + "-";
+        for (int i = 0; i < prefetches; i++) {
+            ThumbnailLoader.prefetch(mContext, mServer.getThumbnailUrl(prefix + i));
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (mServer.getThumbnailCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("No prefetch was started", mServer.getThumbnailCount() > 0);
+
+        ThumbnailLoader.cancelPrefetches();
+        Thread.sleep(3000);
+
+        // Only the few prefetches already downloading can still reach the server.
+        assertTrue(mServer.getThumbnailCount() + " of " + prefetches
+                + " prefetches reached the server",
+                mServer.getThumbnailCount() <= prefetches / 2);
+    }
+
+    private ImageView newImageView() {
+        final ImageView[] imageView = new ImageView[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                imageView[0] = new ImageView(mContext);
+            }
+        });
+        return imageView[0];
+    }
+
+    private void load(final ImageView imageView, final String imageUrl) {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ThumbnailLoader.load(imageView, imageUrl);
+            }
+        });
+    }
+
+    private Drawable getImage(final ImageView imageView) {
+        final Drawable[] drawable = new Drawable[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                drawable[0] = imageView.getDrawable();
+            }
+        });
+        return drawable[0];
+    }
+
+    /**
+     * Waits until the image view shows an image, and returns it.
+     */
+    private Drawable waitForImage(ImageView imageView) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        Drawable drawable;
+        while ((drawable = getImage(imageView)) == null) {
+            assertTrue("The thumbnail wasn't loaded", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+        return drawable;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.booklistingapp;
+
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the first pages warmed into the {@link WarmCache} being served by the
+ * {@link PagePrefetcher}, against a local {@link MockBooksServer}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WarmCacheTest {
+
+    private static final int PAGE_SIZE = 10;
+
+    private MockBooksServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockBooksServer();
+        mServer.start();
+        WarmCache.init(InstrumentationRegistry.getTargetContext());
+        BookCache.clear();
+        QueryUtils.getRevalidationCache().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BookCache.setTtl(10, TimeUnit.MINUTES);
+        BookCache.clear();
+        QueryUtils.getRevalidationCache().clear();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void warmedFirstPage_isServedWithoutRequest() throws Exception {
+        String url = warmedUrl("fresh");
+
+        List<Book> page = fetchFirstPage(url);
+
+        assertEquals(PAGE_SIZE, page.size());
+        assertEquals("warmed 0", page.get(0).getTitle());
+        assertEquals(0, mServer.getRequestCount());
+    }
+
+    @Test
+    public void staleWarmedPage_isServedThenRevalidated() throws Exception {
+        String url = warmedUrl("stale");
+        // Every warmed page is older than a memory cache entry may be.
+        BookCache.setTtl(1, TimeUnit.MILLISECONDS);
+        SystemClock.sleep(5);
+
+        List<Book> page = fetchFirstPage(url);
+
+        assertEquals("The stale page wasn't served", "warmed 0", page.get(0).getTitle());
+        long deadline = SystemClock.elapsedRealtime() + 5000;
+        WarmCache.Page refreshed = WarmCache.get(url);
+        while (refreshed.books.get(0).getTitle().startsWith("warmed")
+                && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(10);
+            refreshed = WarmCache.get(url);
+        }
+        assertEquals(1, mServer.getRequestCount());
+        assertTrue(refreshed.books.get(0).getTitle().endsWith("volume 0"));
+    }
+
+    /**
+     * Warms the first page of a query that no earlier run can have warmed, and returns its
+     * request URL.
+     */
+    private String warmedUrl(String name) throws Exception {
+        String url = mServer.getUrl() + "?q=" + name + System.nanoTime()
+                + "&startIndex=0&maxResults=" + PAGE_SIZE;
+        List<Book> books = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            books.add(new Book("warm-" + i, "warmed " + i, "Author", "2001", "Warmed", null));
+        }
+        WarmCache.put(url, books);
+        return url;
+    }
+
+    /**
+     * Fetches the page the way a first page load does, and waits for it.
+     */
+    private static List<Book> fetchFirstPage(String url) throws InterruptedException {
+        final AtomicReference<List<Book>> result = new AtomicReference<>();
+        final CountDownLatch fetched = new CountDownLatch(1);
+        PagePrefetcher.fetchPages(Collections.singletonList(url),
+                LoadingEngine.Priority.FOREGROUND, new CancellationSignal(), null,
+                new PagePrefetcher.Callback() {
+                    @Override
+                    public void onPagesFetched(List<List<Book>> pages) {
+                        result.set(pages.get(0));
+                        fetched.countDown();
+                    }
+                });
+        assertTrue("The page wasn't fetched", fetched.await(5, TimeUnit.SECONDS));
+        assertNotNull("The page failed", result.get());
+        return result.get();
+    }
+}
@@ -1,9 +1,35 @@
 package com.example.booklistingapp;
 
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
 /**
  * An {@link Book} object contains information related to a single book.
+ * <p>
+ * Large result lists hold thousands of books, so the representation is kept lean. Author
+ * and publish date strings repeat across results and are interned, so each distinct value
+ * is held once. The description, which is the bulk of a book and mostly never scrolled to,
+ * is kept as UTF-8 bytes (one byte per character for most text, rather than two) and only
+ * decoded when it is displayed. This shrinks what a list holds on to, not what parsing
+ * allocates: the parser still reads each description as a String before it is encoded.
+ * Books are {@link Parcelable}, so a result list can be saved with the activity state.
  */
-public class Book {
+public class Book implements Parcelable {
+
+    /**
+     * Encoding of the description bytes.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    /**
+     * Google Books volume id of the book.
+     */
+    private String mId;
 
     /**
      * Title of the book.
@@ -21,32 +47,90 @@ public class Book {
     private String mPublishDate;
 
     /**
-     * Description of the book.
+     * Description of the book, encoded as UTF-8.
      */
-    private String mDescription;
+    private byte[] mDescription;
 
     /**
      * Image URL of the book.
      */
     private String mImageUrl;
 
+    /**
+     * Text of the list item of the book, built once on the loader thread.
+     */
+    private volatile BookDisplayModel mDisplayModel;
+
     /**
      * Constructs a new {@link Book} object.
      *
+     * @param id          is the Google Books volume id of the book.
      * @param title       is the name of the title of the book.
      * @param author      is the name of the Author of the book.
      * @param publishDate is the year when the book was published.
      * @param description is a brief description about the book.
+     * @param imageUrl    is the url of the thumbnail of the book.
      */
-    public Book(String title, String author, String publishDate, String description,
-                String imageUrl) {
+    public Book(String id, String title, String author, String publishDate,
+                String description, String imageUrl) {
+        mId = id;
         mTitle = title;
-        mAuthor = author;
-        mPublishDate = publishDate;
-        mDescription = description;
+        mAuthor = intern(author);
+        mPublishDate = intern(publishDate);
+        mDescription = description == null ? EMPTY_BYTES : description.getBytes(UTF_8);
         mImageUrl = imageUrl;
     }
 
+    /**
+     * Constructs a new {@link Book} object whose description is already encoded.
+     *
+     * @param descriptionUtf8 is the description encoded as UTF-8, it is kept as is.
+     */
+    Book(String id, String title, String author, String publishDate,
+         byte[] descriptionUtf8, String imageUrl) {
+        mId = id;
+        mTitle = title;
+        mAuthor = intern(author);
+        mPublishDate = intern(publishDate);
+        mDescription = descriptionUtf8;
+        mImageUrl = imageUrl;
+    }
+
+    /**
+     * Constructs a {@link Book} from its parcel, see {@link #writeToParcel}.
+     */
+    private Book(Parcel in) {
+        mId = in.readString();
+        mTitle = in.readString();
+        mAuthor = intern(in.readString());
+        mPublishDate = intern(in.readString());
+        mDescription = in.createByteArray();
+        mImageUrl = in.readString();
+    }
+
+    public static final Parcelable.Creator<Book> CREATOR = new Parcelable.Creator<Book>() {
+        @Override
+        public Book createFromParcel(Parcel in) {
+            return new Book(in);
+        }
+
+        @Override
+        public Book[] newArray(int size) {
+            return new Book[size];
+        }
+    };
+
+    private static String intern(String value) {
+        return value == null ? null : value.intern();
+    }
+
+    /**
+     * Returns the Google Books volume id of the book.
+     */
+    public String getId() {
+        return mId;
+    }
+
     /**
      * Returns the title of the book.
      */
@@ -69,16 +153,72 @@ public class Book {
     }
 
     /**
-     * Returns the description of the book.
+     * Returns the description of the book. It is decoded on every call, so callers that
+     * only display it shouldn't keep it.
      */
     public String getDescription() {
+        return new String(mDescription, UTF_8);
+    }
+
+    /**
+     * Returns the description encoded as UTF-8. The array is not copied and must not be
+     * modified.
+     */
+    byte[] getDescriptionBytes() {
         return mDescription;
     }
 
+    /**
+     * Returns the size of the encoded description, in bytes.
+     */
+    public int getDescriptionSize() {
+        return mDescription.length;
+    }
+
+    /**
+     * Returns true if the other book has the same description, without decoding either.
+     */
+    public boolean hasSameDescription(Book other) {
+        return Arrays.equals(mDescription, other.mDescription);
+    }
+
     /**
      * Returns the image url of the book.
      */
     public String getImageUrl() {
         return mImageUrl;
     }
+
+    /**
+     * Returns the display model of the book, or null if it hasn't been built yet.
+     */
+    public BookDisplayModel getDisplayModel() {
+        return mDisplayModel;
+    }
+
+    /**
+     * Sets the display model of the book.
+     */
+    public void setDisplayModel(BookDisplayModel displayModel) {
+        mDisplayModel = displayModel;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Writes the book to the parcel. The display model isn't written, it is rebuilt when
+     * the book is bound.
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(mId);
+        dest.writeString(mTitle);
+        dest.writeString(mAuthor);
+        dest.writeString(mPublishDate);
+        dest.writeByteArray(mDescription);
+        dest.writeString(mImageUrl);
+    }
 }
@@ -1,6 +1,5 @@
 package com.example.booklistingapp;
 
-import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.content.Context;
 import android.content.Loader;
@@ -8,18 +7,33 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ListView;
+import android.widget.Spinner;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 
 public class BookActivity extends AppCompatActivity implements LoaderCallbacks<List<Book>> {
@@ -36,11 +50,76 @@ public class BookActivity extends AppCompatActivity implements LoaderCallbacks<L
      */
     private static final int BOOK_LOADER_ID = 1;
 
+    /**
+     * Constant value for the loader ID of the local index search.
+     */
+    private static final int LOCAL_LOADER_ID = 2;
+
+    /**
+     * The next page is requested once the last visible row is this close to the end
+     * of the list.
+     */
+    private static final int LOAD_MORE_THRESHOLD = 5;
+
+    /**
+     * Number of rows below the last visible one whose thumbnails are fetched ahead.
+     */
+    private static final int THUMBNAIL_PREFETCH_COUNT = 4;
+
+    /**
+     * Bundle key for the query of the page to load.
+     */
+    private static final String ARG_QUERY = "query";
+
+    /**
+     * Bundle key for the index of the first book of the page to load.
+     */
+    private static final String ARG_START_INDEX = "startIndex";
+
+    /**
+     * Bundle key for the name of the {@link FetchProfile.Profile} of the page to load.
+     */
+    private static final String ARG_PROFILE = "profile";
+
+    /**
+     * Largest list of books saved with the activity state. Larger lists could overflow
+     * the saved state, so only their query is saved and searched for again.
+     */
+    private static final int MAX_SAVED_BOOKS = 100;
+
+    /**
+     * Saved state keys for the query, its books and its paging position.
+     */
+    private static final String STATE_QUERY = "query";
+    private static final String STATE_BOOKS = "books";
+    private static final String STATE_NEXT_START_INDEX = "nextStartIndex";
+    private static final String STATE_HAS_MORE_PAGES = "hasMorePages";
+
+    /**
+     * Name of the snapshot of the last results, in the app cache directory.
+     */
+    static final String SNAPSHOT_FILE_NAME = "last_results.snapshot";
+
     /**
      * Adapter for the list of books.
      */
     private BookAdapter mAdapter;
 
+    /**
+     * Books shown for the current query, in display order.
+     */
+    private final List<Book> mBooks = new ArrayList<>();
+
+    /**
+     * Sorts and filters {@link #mBooks} for display.
+     */
+    private BookQueryEngine mQueryEngine;
+
+    /**
+     * True while the empty view says that no loaded book matches the filter.
+     */
+    private boolean mShowingNoMatches;
+
     /**
      * TextView that is displayed when the list is empty.
      */
@@ -61,25 +140,147 @@ public class BookActivity extends AppCompatActivity implements LoaderCallbacks<L
      */
     private String searchQuery;
 
+    /**
+     * Index of the first book of the next page to request.
+     */
+    private int mNextStartIndex;
+
+    /**
+     * Fetch profile of the current query, picked when its first page is requested so
+     * every page of it has the same size and fields. Null until then.
+     */
+    private FetchProfile.Profile mProfile;
+
+    /**
+     * True while a page request is in flight, so at most one runs per query.
+     */
+    private boolean mPageLoading;
+
+    /**
+     * False once a page came back short, meaning there are no more results.
+     */
+    private boolean mHasMorePages;
+
+    /**
+     * Keys of the books shown for the current query, as the adapter identifies them, so a
+     * book that moved between pages, or was already shown by a partial result, isn't
+     * listed twice.
+     */
+    private final Set<String> mShownKeys = new HashSet<>();
+
+    /**
+     * Books of the current query found in the local index.
+     */
+    private List<Book> mLocalBooks = new ArrayList<>();
+
+    /**
+     * True once the first network page of the current query is shown.
+     */
+    private boolean mNetworkResultsShown;
+
+    /**
+     * True if there was no network connection when the current query was started.
+     */
+    private boolean mOffline;
+
+    /**
+     * Last visible position the thumbnails were prefetched from.
+     */
+    private int mLastPrefetchPosition = RecyclerView.NO_POSITION;
+
+    /**
+     * True to request the lite projection of volumes.
+     */
+    private boolean mLiteProjection;
+
+    /**
+     * Time onCreate was called, from {@link SystemClock#uptimeMillis()}.
+     */
+    private long mCreateTimeMillis;
+
+    /**
+     * Time the text has to stay unchanged before a search is started, in milliseconds.
+     */
+    private int mSearchDelayMillis;
+
+    /**
+     * Handler the debounced searches are posted to.
+     */
+    private final Handler mSearchHandler = new Handler();
+
+    /**
+     * Searches for the current text of the EditText.
+     */
+    private final Runnable mDebouncedSearch = new Runnable() {
+        @Override
+        public void run() {
+            search(editText.getText().toString().trim(), false);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         Log.i(LOG_TAG, "TEST: Book Activity onCreate() called");
+        mCreateTimeMillis = SystemClock.uptimeMillis();
+        if (BuildConfig.DEBUG) {
+            JankMonitor.enableStrictMode();
+        }
         super.onCreate(savedInstanceState);
         setContentView(R.layout.books_activity);
 
-        // Find a reference to the {@link ListView} in the layout.
-        final ListView bookListView = findViewById(R.id.list);
+        // Let searches be answered from the first pages fetched ahead of time.
+        WarmCache.init(this);
+        FetchPolicy.setHedgingEnabled(getResources().getBoolean(R.bool.hedge_requests));
+
+        // Find a reference to the {@link RecyclerView} in the layout.
+        final RecyclerView bookListView = findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        bookListView.setLayoutManager(layoutManager);
 
         // Find a reference to the empty view in the layout.
         mEmptyTextView = findViewById(R.id.empty_view);
 
-        // Create a new adapter that takes an empty list of books as input.
-        mAdapter = new BookAdapter(this, new ArrayList<Book>());
+        // The thumbnail loader opens its disk cache in the background once the first frame
+        // is drawn, so the rows bound before then, restored or not, skip their thumbnails.
+        ThumbnailLoader.deferInitialization();
 
-        // Set the adapter on the {@link ListView}
+        // Create a new adapter, its list of books starts empty.
+        mAdapter = new BookAdapter();
+
+        // Set the adapter on the {@link RecyclerView}
         // so the list can be populated in the user interface.
         bookListView.setAdapter(mAdapter);
 
+        // The loaded books reach the adapter through the query engine, sorted and
+        // filtered as the user chose.
+        mQueryEngine = new BookQueryEngine(new BookQueryEngine.Callback() {
+            @Override
+            public void onResult(List<Book> books) {
+                showResult(books);
+            }
+        });
+
+        // Request the next page of results when the user scrolls near the end of the list.
+        bookListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = layoutManager.getItemCount();
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                // A filtered list is short, paging through it would fetch every page.
+                if (totalItemCount > 0 && lastVisible >= totalItemCount - 1 - LOAD_MORE_THRESHOLD
+                        && !mQueryEngine.isFiltering()) {
+                    loadNextPage();
+                }
+
+                // Fetch the thumbnails of the next rows before they scroll into view.
+                if (lastVisible != mLastPrefetchPosition) {
+                    mLastPrefetchPosition = lastVisible;
+                    mAdapter.prefetchThumbnails(BookActivity.this, lastVisible + 1,
+                            THUMBNAIL_PREFETCH_COUNT);
+                }
+            }
+        });
+
         // Find a reference to the EditText view in the layout.
         editText = findViewById(R.id.edit_text);
         // Hide the cursor when the activity is created.
@@ -105,26 +306,65 @@ public class BookActivity extends AppCompatActivity implements LoaderCallbacks<L
             }
         });
 
+        // Search as the user types, once the text has stopped changing for the
+        // debounce window.
+        mSearchDelayMillis = getResources().getInteger(R.integer.search_debounce_millis);
+        mLiteProjection = getResources().getBoolean(R.bool.lite_projection);
+        editText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mSearchHandler.removeCallbacks(mDebouncedSearch);
+                mSearchHandler.postDelayed(mDebouncedSearch, mSearchDelayMillis);
+            }
+        });
+
+        // Sort and filter the loaded books as the user chooses, without searching again.
+        EditText filterText = findViewById(R.id.filter_text);
+        filterText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mQueryEngine.setFilter(s.toString());
+            }
+        });
+        Spinner sortSpinner = findViewById(R.id.sort_spinner);
+        sortSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                mQueryEngine.setSortOrder(BookQueryEngine.SortOrder.values()[position]);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
         // Set a click listener on the button, to send a query to the google
         // books url with the user's input retrieved from the EditText field.
         searchButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                // The button searches right away, so drop any pending debounced search.
+                mSearchHandler.removeCallbacks(mDebouncedSearch);
+
                 // Hide the EditText cursor after the search button has been clicked.
                 editText.setCursorVisible(false);
 
-                // Get the value of the text entered.
-                searchQuery = editText.getText().toString().trim();
-
-                // Check if the EditText field input is blank
-                if (TextUtils.isEmpty(searchQuery)) {
-                    // Since there is no text input in the EditText field return early
-                    return;
-                }
-
-                // Display the loading before the books data has finished loading.
-                loadingIndicator.setVisibility(View.VISIBLE);
-
                 // Get a reference to the InputMethodManager to check the state of the
                 // keyboard.
                 InputMethodManager imm = (InputMethodManager)
@@ -132,73 +372,523 @@ public class BookActivity extends AppCompatActivity implements LoaderCallbacks<L
                 // Hide keyboard after the search button is clicked.
                 imm.hideSoftInputFromWindow(editText.getWindowToken(), 0);
 
-                // Get a reference to the ConnectivityManager to check the state of network
-                // connectivity.
-                ConnectivityManager connMgr = (ConnectivityManager)
-                        getSystemService(Context.CONNECTIVITY_SERVICE);
-
-                // Get details on the currently active default data network.
-                NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
-
-                // If there is a network connection, fetch data.
-                if (networkInfo != null && networkInfo.isConnected()) {
-                    // Get a reference to the LoaderManager, inorder to interact with loaders.
-                    LoaderManager loaderManager = getLoaderManager();
-
-                    // Initialize the loader. Pass in the int ID constant defined above and pass
-                    // in null for the bundle. Pass in this activity for the LoaderCallbacks
-                    // parameter.
-                    loaderManager.initLoader(BOOK_LOADER_ID, null, BookActivity.this);
-                    Log.i(LOG_TAG, "TEST: calling initLoader() ...");
-                } else {
-                    // Otherwise, display error.
-                    // First hide loading indicator so error message will be visible.
-                    loadingIndicator.setVisibility(View.GONE);
-
-                    // Update empty state with no connection error message.
-                    mEmptyTextView.setText(R.string.no_internet_connection);
+                search(editText.getText().toString().trim(), true);
+            }
+        });
+
+        if (savedInstanceState != null) {
+            restoreState(savedInstanceState);
+        } else {
+            // Show the last results of the previous session in the first frame.
+            restoreSnapshot();
+        }
+
+        // Time the first frame with content, and once the first frame is drawn, do the
+        // initialization it doesn't need.
+        bookListView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    private boolean mDeferredInitPosted;
+
+                    @Override
+                    public boolean onPreDraw() {
+                        if (!mDeferredInitPosted) {
+                            mDeferredInitPosted = true;
+                            bookListView.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    initializeDeferred();
+                                }
+                            });
+                        }
+                        if (mAdapter.getItemCount() > 0) {
+                            bookListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                            reportFirstContent();
+                        }
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Initializes what the first frame doesn't need: the thumbnail loader, whose disk
+     * cache is opened in the background, and the schedule of the cache warming. The rows
+     * bound before the thumbnail loader was ready get their thumbnails then.
+     */
+    private void initializeDeferred() {
+        CacheWarmer.schedule(this);
+        ThumbnailLoader.initializeAsync(this, new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.notifyItemRangeChanged(0, mAdapter.getItemCount(),
+                        BookAdapter.PAYLOAD_THUMBNAIL);
+            }
+        });
+    }
+
+    /**
+     * Logs the time from the start of the process, or of onCreate before API 24, to the
+     * first frame that shows books, and reports the activity fully drawn.
+     */
+    private void reportFirstContent() {
+        long now = SystemClock.uptimeMillis();
+        String message = "First content drawn " + (now - mCreateTimeMillis)
+                + " ms after onCreate";
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            message += ", " + (now - Process.getStartUptimeMillis())
+                    + " ms after process start";
+        }
+        Log.i(LOG_TAG, message);
+        reportFullyDrawn();
+    }
+
+    /**
+     * Returns the file of the snapshot of the last results.
+     */
+    private File getSnapshotFile() {
+        return new File(getCacheDir(), SNAPSHOT_FILE_NAME);
+    }
+
+    /**
+     * Shows the books of the snapshot of the last results, if there is one and the user
+     * hasn't typed or searched in the meantime. The file is mapped in the background, the books are
+     * decoded from it as their rows are bound, and paging only resumes with a new search.
+     */
+    private void restoreSnapshot() {
+        ResultSnapshot.openAsync(getSnapshotFile(), new ResultSnapshot.Callback() {
+            @Override
+            public void onOpened(ResultSnapshot snapshot) {
+                if (!isDestroyed() && searchQuery == null
+                        && TextUtils.isEmpty(editText.getText())) {
+                    showSnapshot(snapshot);
                 }
             }
         });
     }
 
+    private void showSnapshot(ResultSnapshot snapshot) {
+        if (snapshot == null || snapshot.getBooks().isEmpty()) {
+            return;
+        }
+        // Set the query first, so the text change below doesn't search for it again.
+        searchQuery = snapshot.getQuery();
+        editText.setText(searchQuery);
+        mHasMorePages = false;
+        mQueryEngine.setBooks(snapshot.getBooks());
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        JankMonitor.startFrameMonitoring();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        JankMonitor.stopFrameMonitoring();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Keep the results for the next cold start.
+        if (mNetworkResultsShown && !mBooks.isEmpty()) {
+            ResultSnapshot.saveAsync(getSnapshotFile(), searchQuery, mBooks);
+        }
+        if (JankMonitor.isEnabled()) {
+            exportReports();
+        }
+    }
+
+    /**
+     * Writes the UI thread timings and the fetch timings to logcat and to the app's
+     * external files directory, or to its internal one when there is no external storage,
+     * in the background.
+     */
+    private void exportReports() {
+        File directory = getExternalFilesDir(null);
+        final File reportDirectory = directory != null ? directory : getFilesDir();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                JankMonitor.dumpToLog();
+                try {
+                    JankMonitor.dumpToFiles(reportDirectory);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem writing the jank report", e);
+                }
+                FetchMetrics.dumpToLog();
+                try {
+                    FetchMetrics.dumpToFile(new File(reportDirectory,
+                            FetchMetrics.SUMMARY_FILE_NAME));
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem writing the fetch report", e);
+                }
+            }
+        }).start();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (searchQuery == null) {
+            return;
+        }
+        outState.putString(STATE_QUERY, searchQuery);
+
+        // The books are parcelled with their description still encoded, so saving them
+        // is cheap. A list that is still loading is searched for again instead.
+        if (mNetworkResultsShown && !mPageLoading && mBooks.size() <= MAX_SAVED_BOOKS) {
+            outState.putParcelableArrayList(STATE_BOOKS, new ArrayList<>(mBooks));
+            outState.putInt(STATE_NEXT_START_INDEX, mNextStartIndex);
+            outState.putBoolean(STATE_HAS_MORE_PAGES, mHasMorePages);
+        }
+    }
+
+    /**
+     * Shows the books saved with the activity state, or searches for the saved query
+     * again if its books weren't saved.
+     */
+    private void restoreState(Bundle savedInstanceState) {
+        String query = savedInstanceState.getString(STATE_QUERY);
+        if (query == null) {
+            return;
+        }
+        ArrayList<Book> books = savedInstanceState.getParcelableArrayList(STATE_BOOKS);
+        if (books == null) {
+            search(query, true);
+            return;
+        }
+
+        searchQuery = query;
+        mNetworkResultsShown = true;
+        mNextStartIndex = savedInstanceState.getInt(STATE_NEXT_START_INDEX);
+        mHasMorePages = savedInstanceState.getBoolean(STATE_HAS_MORE_PAGES);
+        mBooks.addAll(removeShown(books));
+        if (mBooks.isEmpty()) {
+            mEmptyTextView.setText(R.string.no_books);
+        }
+        mQueryEngine.setBooks(new ArrayList<>(mBooks));
+    }
+
+    @Override
+    protected void onDestroy() {
+        mSearchHandler.removeCallbacks(mDebouncedSearch);
+        super.onDestroy();
+        // After the loaders are reset, which still hands the engine an empty list.
+        mQueryEngine.shutdown();
+    }
+
+    /**
+     * Starts a search for the query, superseding the one in flight.
+     *
+     * @param query is the text entered by the user.
+     * @param force is true to search again even if the query hasn't changed.
+     */
+    private void search(String query, boolean force) {
+        // Check if the EditText field input is blank
+        if (TextUtils.isEmpty(query)) {
+            // Since there is no text input in the EditText field return early
+            return;
+        }
+
+        // Typing a character and deleting it again shouldn't run the same search twice,
+        // and tapping search again while the first page of the query is still loading
+        // leaves that load to answer it.
+        boolean sameQuery = searchQuery != null
+                && normalizeQuery(query).equals(normalizeQuery(searchQuery));
+        Loader<List<Book>> loader = getLoaderManager().getLoader(BOOK_LOADER_ID);
+        boolean firstPageLoading = mPageLoading && !mNetworkResultsShown
+                && loader instanceof EngineLoader && ((EngineLoader<?>) loader).isLoading();
+        if (sameQuery && (!force || firstPageLoading)) {
+            return;
+        }
+        searchQuery = query;
+
+        // Cancel the loader of the superseded query, which also aborts its HTTP connection.
+        // A cancelled load delivers nothing, so it is no longer in flight from here on.
+        if (loader != null) {
+            loader.cancelLoad();
+        }
+        mPageLoading = false;
+
+        // Start over from the first page of the new query.
+        mBooks.clear();
+        mQueryEngine.setBooks(new ArrayList<>(mBooks));
+        mShownKeys.clear();
+        mLocalBooks = new ArrayList<>();
+        mNetworkResultsShown = false;
+        mLastPrefetchPosition = RecyclerView.NO_POSITION;
+        ThumbnailLoader.cancelPrefetches();
+        mEmptyTextView.setText("");
+        mNextStartIndex = 0;
+        mProfile = null;
+
+        // Display the loading before the books data has finished loading.
+        loadingIndicator.setVisibility(View.VISIBLE);
+
+        // Answer from the local index of previously fetched books right away, whether or
+        // not there is a network connection.
+        Bundle args = new Bundle();
+        args.putString(ARG_QUERY, searchQuery);
+        getLoaderManager().restartLoader(LOCAL_LOADER_ID, args, this);
+
+        // Get a reference to the ConnectivityManager to check the state of network
+        // connectivity.
+        ConnectivityManager connMgr = (ConnectivityManager)
+                getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        // Get details on the currently active default data network.
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+
+        // If there is a network connection, fetch data.
+        mOffline = networkInfo == null || !networkInfo.isConnected();
+        if (!mOffline) {
+            mHasMorePages = true;
+            loadPage(0);
+        } else {
+            // Otherwise only the local results can be shown, the no connection error
+            // message is displayed if there are none.
+            mHasMorePages = false;
+        }
+    }
+
+    /**
+     * Requests the page of the current query that starts at the given index.
+     */
+    private void loadPage(int startIndex) {
+        mPageLoading = true;
+
+        // Ask for as much as the network can deliver quickly when the query starts, and
+        // keep to it for the following pages.
+        if (mProfile == null) {
+            mProfile = FetchProfile.select(this);
+        }
+
+        Bundle args = new Bundle();
+        args.putString(ARG_QUERY, searchQuery);
+        args.putInt(ARG_START_INDEX, startIndex);
+        args.putString(ARG_PROFILE, mProfile.name());
+
+        // Restart the loader so it is created again for this page instead of
+        // redelivering the result of the previous one.
+        getLoaderManager().restartLoader(BOOK_LOADER_ID, args, this);
+        Log.i(LOG_TAG, "TEST: calling restartLoader() ...");
+    }
+
+    /**
+     * Requests the next page of the current query, unless one is already in flight or
+     * the last page has been reached.
+     */
+    private void loadNextPage() {
+        if (mPageLoading || !mHasMorePages || TextUtils.isEmpty(searchQuery)) {
+            return;
+        }
+        loadPage(mNextStartIndex);
+    }
+
     @Override
     public Loader<List<Book>> onCreateLoader(int id, Bundle bundle) {
         Log.i(LOG_TAG, "TEST: onCreateLoader() called ...");
 
+        String query = bundle.getString(ARG_QUERY);
+        if (id == LOCAL_LOADER_ID) {
+            return new LocalBookLoader(this, query);
+        }
+        int startIndex = bundle.getInt(ARG_START_INDEX, 0);
+
+        FetchProfile.Profile profile = FetchProfile.Profile.valueOf(
+                bundle.getString(ARG_PROFILE));
+
+        // Build the URL of each page the loader fetches at the same time.
+        List<String> pageUrls = new ArrayList<>(profile.pagesPerLoad);
+        for (int page = 0; page < profile.pagesPerLoad; page++) {
+            pageUrls.add(buildPageUrl(query, startIndex + page * profile.pageSize, profile,
+                    mLiteProjection));
+        }
+
+        // Create a new loader for the given URLs.
+        return new BookLoader(this, pageUrls, startIndex, profile.pageSize);
+    }
+
+    /**
+     * Returns the URL of the page of results of the query that starts at the given index.
+     *
+     * @param profile        decides the page size and the fields requested.
+     * @param liteProjection is true to request the lite projection of volumes.
+     */
+    static String buildPageUrl(String query, int startIndex, FetchProfile.Profile profile,
+                               boolean liteProjection) {
         Uri baseUri = Uri.parse(GOOGLE_BOOKS_REQUEST_URL);
         Uri.Builder uriBuilder = baseUri.buildUpon();
 
-        uriBuilder.appendQueryParameter("q", searchQuery);
+        // Normalize the query so equivalent searches share the same URL, and with it
+        // the same {@link BookCache} entry.
+        uriBuilder.appendQueryParameter("q", normalizeQuery(query));
+        uriBuilder.appendQueryParameter("startIndex", String.valueOf(startIndex));
+        uriBuilder.appendQueryParameter("maxResults", String.valueOf(profile.pageSize));
+
+        // Only ask for the fields the parser reads, which shrinks the response to a
+        // fraction of the full volume resources.
+        uriBuilder.appendQueryParameter("fields", profile.getFields());
+        if (liteProjection) {
+            uriBuilder.appendQueryParameter("projection", "lite");
+        }
+        return uriBuilder.toString();
+    }
 
-        // Create a new loader for the given URL.
-        return new BookLoader(this, uriBuilder.toString());
+    /**
+     * Returns the query in lower case with runs of whitespace collapsed to a single space.
+     */
+    static String normalizeQuery(String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
     }
 
     @Override
     public void onLoadFinished(Loader<List<Book>> loader, List<Book> books) {
         Log.i(LOG_TAG, "TEST: onLoadFinished() called ...");
+        long deliveryStart = JankMonitor.begin("BookActivity.deliver");
+        try {
+            if (loader.getId() == LOCAL_LOADER_ID) {
+                onLocalResults(books);
+            } else if (((BookLoader) loader).isPartial()) {
+                onPartialNetworkResults((BookLoader) loader, books);
+            } else {
+                onNetworkResults((BookLoader) loader, books);
+            }
+        } finally {
+            JankMonitor.end(JankMonitor.Kind.DELIVERY, deliveryStart);
+        }
+    }
+
+    /**
+     * Shows a page of network results, the first one replacing the books listed so far.
+     */
+    private void onNetworkResults(BookLoader bookLoader, List<Book> books) {
         // Hide the loading indicator because the data has been loaded.
         loadingIndicator.setVisibility(View.GONE);
 
-        // Clear the adapter of previous book data.
-        mAdapter.clear();
+        mPageLoading = false;
+        int startIndex = bookLoader.getStartIndex();
 
-        if (books == null && books.isEmpty()) {
-            // If there is no valid list of {@link Book}s,
-            // Set empty state text to display "No books found."
-            mEmptyTextView.setText(R.string.no_books);
+        // A short page means the end of the results has been reached.
+        mHasMorePages = books != null && bookLoader.hasMore();
+        if (books != null) {
+            mNextStartIndex = bookLoader.getNextStartIndex();
+        }
+
+        if (startIndex == 0) {
+            // The first network page takes the lead, the local results that it doesn't
+            // contain stay listed after it.
+            mNetworkResultsShown = true;
+            mBooks.clear();
+            mShownKeys.clear();
+            if (books != null) {
+                mBooks.addAll(removeShown(books));
+            }
+            mBooks.addAll(removeShown(mLocalBooks));
+            if (books != null && !books.isEmpty()) {
+                // Remember the queries that found books, the frequent ones are fetched
+                // ahead of time by the {@link CacheWarmer}.
+                RecentQueries.recordAsync(this, normalizeQuery(searchQuery));
+            }
+            if (mBooks.isEmpty()) {
+                // If there is no valid list of {@link Book}s,
+                // Set empty state text to display "No books found."
+                mEmptyTextView.setText(R.string.no_books);
+            }
+        } else if (books != null) {
+            // Append the new books to the pages already shown.
+            mBooks.addAll(removeShown(books));
+        }
+
+        // Hand the new list to the query engine, which sorts and filters it for the
+        // adapter.
+        mQueryEngine.setBooks(new ArrayList<>(mBooks));
+    }
+
+    /**
+     * Shows the books of a page parsed so far, while the rest of it is still downloading.
+     * The page stays loading until its complete result arrives.
+     */
+    private void onPartialNetworkResults(BookLoader bookLoader, List<Book> books) {
+        loadingIndicator.setVisibility(View.GONE);
+        if (bookLoader.getStartIndex() == 0) {
+            // Listed like the complete first page, ahead of the local results.
+            mBooks.clear();
+            mShownKeys.clear();
+            mBooks.addAll(removeShown(books));
+            mBooks.addAll(removeShown(mLocalBooks));
         } else {
-            // If there is a valid list of {@link Book}s, then add them to the adapter's
-            // data set. This will trigger the ListView to update
-            mAdapter.addAll(books);
+            // Each partial result holds the previous one, only its new books are appended,
+            // and the complete result of the page only appends what is still missing.
+            mBooks.addAll(removeShown(books));
         }
+        mQueryEngine.setBooks(new ArrayList<>(mBooks));
+    }
+
+    /**
+     * Shows the books found in the local index, unless the network results already
+     * arrived.
+     */
+    private void onLocalResults(List<Book> books) {
+        mLocalBooks = books;
+        if (mNetworkResultsShown) {
+            return;
+        }
+        if (!books.isEmpty()) {
+            loadingIndicator.setVisibility(View.GONE);
+            mBooks.addAll(removeShown(books));
+            mQueryEngine.setBooks(new ArrayList<>(mBooks));
+        } else if (mOffline) {
+            // Display error.
+            // First hide loading indicator so error message will be visible.
+            loadingIndicator.setVisibility(View.GONE);
+
+            // Update empty state with no connection error message.
+            mEmptyTextView.setText(R.string.no_internet_connection);
+        }
+    }
+
+    /**
+     * Hands the sorted and filtered books to the adapter. The difference with the
+     * current list is computed in the background, so only the rows that changed are
+     * bound.
+     */
+    private void showResult(List<Book> books) {
+        if (books.isEmpty() && !mBooks.isEmpty() && mQueryEngine.isFiltering()) {
+            mEmptyTextView.setText(R.string.no_matching_books);
+            mShowingNoMatches = true;
+        } else if (mShowingNoMatches) {
+            mEmptyTextView.setText("");
+            mShowingNoMatches = false;
+        }
+        mAdapter.submitList(books);
+    }
+
+    /**
+     * Returns the books that aren't listed yet and remembers their keys. Books without a
+     * volume id are keyed by title and author, like the adapter keys them.
+     */
+    private List<Book> removeShown(List<Book> books) {
+        List<Book> newBooks = new ArrayList<>(books.size());
+        for (Book book : books) {
+            if (mShownKeys.add(BookAdapter.getKey(book))) {
+                newBooks.add(book);
+            }
+        }
+        return newBooks;
     }
 
     @Override
     public void onLoaderReset(Loader<List<Book>> loader) {
         Log.i(LOG_TAG, "TEST: onLoaderReset() called ...");
+        if (loader.getId() == LOCAL_LOADER_ID) {
+            return;
+        }
         // Loader reset, so we can clear out our existing data.
-        mAdapter.clear();
+        mPageLoading = false;
+        mBooks.clear();
+        mQueryEngine.setBooks(new ArrayList<>(mBooks));
     }
 }
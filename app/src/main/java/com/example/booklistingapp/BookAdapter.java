@@ -1,93 +1,240 @@
 package com.example.booklistingapp;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.squareup.picasso.Picasso;
-
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * An {@link BookAdapter} creates a list item layout for each book from the
  * data source (a list of {@link Book} objects).
  * <p>
- * These list item layouts will be provided to an adapter view like ListView
- * to be displayed to the user.
+ * These list item layouts are provided to a RecyclerView to be displayed to the user.
+ * New lists are handed over with {@link #submitList}, which computes the difference with
+ * the current list on a background thread, so only the rows that actually changed are
+ * rebound and the scroll position is kept.
  */
-public class BookAdapter extends ArrayAdapter<Book> {
+public class BookAdapter extends ListAdapter<Book, BookAdapter.BookViewHolder> {
+
+    /**
+     * Decides whether two {@link Book}s are the same volume and whether it changed.
+     */
+    private static final DiffUtil.ItemCallback<Book> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<Book>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull Book oldBook, @NonNull Book newBook) {
+                    return TextUtils.equals(getKey(oldBook), getKey(newBook));
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull Book oldBook, @NonNull Book newBook) {
+                    return TextUtils.equals(oldBook.getTitle(), newBook.getTitle())
+                            && TextUtils.equals(oldBook.getAuthor(), newBook.getAuthor())
+                            && TextUtils.equals(oldBook.getPublishDate(), newBook.getPublishDate())
+                            && oldBook.hasSameDescription(newBook)
+                            && TextUtils.equals(oldBook.getImageUrl(), newBook.getImageUrl());
+                }
+            };
+
+    /**
+     * Payload of a change that only needs the thumbnail of the row to be loaded again.
+     */
+    public static final Object PAYLOAD_THUMBNAIL = new Object();
+
+    /**
+     * Stable item id handed out to each volume, so the same book keeps the same id
+     * across result lists. Only the volumes of the list shown and of the list submitted
+     * last are kept, see {@link #submitList}.
+     */
+    private final Map<String, Long> mItemIds = new HashMap<>();
+
+    /**
+     * Item id handed out to the next volume without one. Ids are never reused, so a
+     * volume that was dropped and comes back can't take the id of another row.
+     */
+    private long mNextItemId;
+
+    /**
+     * Formatter for books that reach the adapter without a display model.
+     */
+    private BookDisplayModel.Formatter mFormatter;
 
     /**
      * Constructs a new {@link BookAdapter}.
-     *
-     * @param context of the app.
-     * @param books   is the list of books, which is the data source of the adapter.
      */
-    public BookAdapter(Context context, List<Book> books) {
-        super(context, 0, books);
+    public BookAdapter() {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
     }
 
     /**
-     * Returns a list item view that displays information about the book at the given position
-     * in the list of books
+     * Returns the key identifying the volume of a book: its Google Books volume id, or
+     * its title and author when the response had no id.
      */
+    static String getKey(Book book) {
+        if (book.getId() != null) {
+            return book.getId();
+        }
+        return book.getTitle() + '\u0000' + book.getAuthor();
+    }
+
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse,
-        // otherwise, if the convertView is null, then inflate a new list item layout.
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.books_list_item, parent, false);
+    public long getItemId(int position) {
+        String key = getKey(getItem(position));
+        Long itemId = mItemIds.get(key);
+        if (itemId == null) {
+            itemId = mNextItemId++;
+            mItemIds.put(key, itemId);
         }
+        return itemId;
+    }
 
-        // Find the book at the given position in the list of books.
-        Book currentBook = getItem(position);
+    /**
+     * Hands over a new list of books, and forgets the item ids of the volumes that are in
+     * neither this list nor the one shown, so the ids of past queries don't pile up. The
+     * list shown keeps its ids until the difference with the new one is applied.
+     */
+    @Override
+    public void submitList(List<Book> books) {
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < getItemCount(); i++) {
+            keys.add(getKey(getItem(i)));
+        }
+        if (books != null) {
+            for (Book book : books) {
+                keys.add(getKey(book));
+            }
+        }
+        mItemIds.keySet().retainAll(keys);
+        super.submitList(books);
+    }
 
-        // Find the ImageView with the view ID image.
-        ImageView imageView = listItemView.findViewById(R.id.image);
+    @NonNull
+    @Override
+    public BookViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(parent.getContext()).inflate(
+                R.layout.books_list_item, parent, false);
+        return new BookViewHolder(listItemView);
+    }
 
-        if (currentBook != null) {
-            Picasso.with(this.getContext())
-                    .load(currentBook.getImageUrl())
-                    .into(imageView);
+    /**
+     * Displays information about the book at the given position in the list of books.
+     * The short text was formatted on the loader thread, only the description is decoded
+     * here.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull BookViewHolder holder, int position) {
+        long bindStart = JankMonitor.begin("BookAdapter.bind");
+        try {
+            // Find the book at the given position in the list of books.
+            Book currentBook = getItem(position);
+            BookDisplayModel model = currentBook.getDisplayModel();
+            if (model == null) {
+                // Books are normally prepared by the loader, format this one now.
+                model = getFormatter(holder.itemView.getContext()).format(currentBook);
+                currentBook.setDisplayModel(model);
+            }
+
+            ThumbnailLoader.load(holder.imageView, model.imageUrl);
+
+            holder.titleView.setText(model.title);
+            holder.authorView.setText(model.authorLine);
+            holder.dateView.setText(model.dateLine);
+            holder.descriptionView.setText(
+                    BookDisplayModel.Formatter.formatDescription(currentBook));
+        } finally {
+            JankMonitor.end(JankMonitor.Kind.BIND, bindStart);
+        }
+    }
+
+    /**
+     * Loads only the thumbnail of a row when that is the only change, see
+     * {@link #PAYLOAD_THUMBNAIL}.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull BookViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && allThumbnailPayloads(payloads)) {
+            ThumbnailLoader.load(holder.imageView, getItem(position).getImageUrl());
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    private static boolean allThumbnailPayloads(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_THUMBNAIL) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cancels the thumbnail load of a row that scrolled out of view.
+     */
+    @Override
+    public void onViewRecycled(@NonNull BookViewHolder holder) {
+        ThumbnailLoader.cancel(holder.imageView);
+    }
+
+    /**
+     * Fetches the thumbnails of the books at the given positions ahead of time, so they
+     * are in memory by the time their rows scroll into view.
+     *
+     * @param context  of the app.
+     * @param position is the first position to prefetch.
+     * @param count    is the number of positions to prefetch.
+     */
+    public void prefetchThumbnails(Context context, int position, int count) {
+        int end = Math.min(position + count, getItemCount());
+        for (int i = Math.max(position, 0); i < end; i++) {
+            Book book = getItem(i);
+            ThumbnailLoader.prefetch(context, book.getImageUrl());
+        }
+    }
+
+    /**
+     * Returns the formatter used for books the loader didn't prepare.
+     */
+    private BookDisplayModel.Formatter getFormatter(Context context) {
+        if (mFormatter == null) {
+            mFormatter = new BookDisplayModel.Formatter(
+                    context.getString(R.string.by_author), context.getString(R.string.released));
         }
+        return mFormatter;
+    }
 
-        // Find the TextView with the view ID title.
-        TextView titleView = listItemView.findViewById(R.id.title);
-        // Get the Title of the book.
-        String title = currentBook.getTitle();
-        // Display the title of the current book in that TextView.
-        titleView.setText(title);
-
-        // Find the TextView with the view ID author.
-        TextView authorView = listItemView.findViewById(R.id.author);
-        // Get the author of the book.
-        String author = currentBook.getAuthor();
-        // Display the author of the current book in that TextView.
-        String by = listItemView.getResources().getString(R.string.by_author);
-        authorView.setText(by + author);
-
-        // Find the TextView with the view ID publish_date.
-        TextView dateView = listItemView.findViewById(R.id.publish_date);
-        // Get the publish date of the book.
-        String date = currentBook.getPublishDate();
-
-        // Find the TextView with the view ID description.
-        TextView descriptionView = listItemView.findViewById(R.id.description);
-        // Get the description of the book.
-        String description = currentBook.getDescription();
-        // Display the description of the current book in that TextView.
-        descriptionView.setText(description);
-
-        String released = listItemView.getResources().getString(R.string.released);
-        // Display the publish date of the current book in that TextView.
-        dateView.setText(released + date);
-
-        return listItemView;
+    /**
+     * Holds the views of a list item, so they are looked up once per item view.
+     */
+    static class BookViewHolder extends RecyclerView.ViewHolder {
+        final ImageView imageView;
+        final TextView titleView;
+        final TextView authorView;
+        final TextView dateView;
+        final TextView descriptionView;
+
+        BookViewHolder(View itemView) {
+            super(itemView);
+            imageView = itemView.findViewById(R.id.image);
+            titleView = itemView.findViewById(R.id.title);
+            authorView = itemView.findViewById(R.id.author);
+            dateView = itemView.findViewById(R.id.publish_date);
+            descriptionView = itemView.findViewById(R.id.description);
+        }
     }
 }
@@ -0,0 +1,169 @@
+package com.example.booklistingapp;
+
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory cache of parsed query results, keyed by the request URL built in
+ * {@link BookActivity#onCreateLoader}.
+ * <p>
+ * Entries are sized by the approximate number of bytes their {@link Book}s hold, least
+ * recently used entries are evicted first once the size limit is reached, and an entry
+ * older than the time to live is treated as a miss.
+ */
+public final class BookCache {
+
+    /**
+     * Default size limit of the cache, in bytes.
+     */
+    private static final int DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+    /**
+     * Default time an entry stays valid, in milliseconds.
+     */
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Parsed books of a single query and the time they were stored.
+     */
+    private static final class Entry {
+        final List<Book> books;
+        final long storedAtMillis;
+        final int sizeBytes;
+
+        Entry(List<Book> books, long storedAtMillis) {
+            this.books = books;
+            this.storedAtMillis = storedAtMillis;
+            this.sizeBytes = estimateSize(books);
+        }
+    }
+
+    private static final LruCache<String, Entry> sCache =
+            new LruCache<String, Entry>(DEFAULT_MAX_BYTES) {
+                @Override
+                protected int sizeOf(String key, Entry entry) {
+                    return key.length() * 2 + entry.sizeBytes;
+                }
+            };
+
+    /**
+     * Time an entry stays valid, in milliseconds.
+     */
+    private static volatile long sTtlMillis = DEFAULT_TTL_MILLIS;
+
+    /**
+     * Number of entries dropped because they outlived the time to live.
+     */
+    private static int sExpiredCount;
+
+    private BookCache() {
+
+    }
+
+    /**
+     * Returns a copy of the books cached for the request URL, or null if there is no
+     * valid entry.
+     */
+    public static List<Book> get(String url) {
+        Entry entry = sCache.get(url);
+        if (entry == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - entry.storedAtMillis > sTtlMillis) {
+            sCache.remove(url);
+            synchronized (BookCache.class) {
+                sExpiredCount++;
+            }
+            return null;
+        }
+        return new ArrayList<>(entry.books);
+    }
+
+    /**
+     * Stores the books parsed for the request URL.
+     */
+    public static void put(String url, List<Book> books) {
+        if (url == null || books == null) {
+            return;
+        }
+        sCache.put(url, new Entry(new ArrayList<>(books), SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * Sets the time an entry stays valid.
+     */
+    public static void setTtl(long duration, TimeUnit unit) {
+        sTtlMillis = unit.toMillis(duration);
+    }
+
+    /**
+     * Returns the time an entry stays valid, in milliseconds.
+     */
+    public static long getTtlMillis() {
+        return sTtlMillis;
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     */
+    public static synchronized int getHitCount() {
+        return sCache.hitCount() - sExpiredCount;
+    }
+
+    /**
+     * Returns the number of lookups that found no valid entry.
+     */
+    public static synchronized int getMissCount() {
+        return sCache.missCount() + sExpiredCount;
+    }
+
+    /**
+     * Returns the number of entries evicted to stay within the size limit.
+     */
+    public static int getEvictionCount() {
+        return sCache.evictionCount();
+    }
+
+    /**
+     * Returns the number of entries dropped because they outlived the time to live.
+     */
+    public static synchronized int getExpiredCount() {
+        return sExpiredCount;
+    }
+
+    /**
+     * Returns the current size of the cache, in bytes.
+     */
+    public static int getSizeBytes() {
+        return sCache.size();
+    }
+
+    /**
+     * Returns an estimate of the number of bytes the strings of the books hold.
+     */
+    private static int estimateSize(List<Book> books) {
+        int size = 0;
+        for (Book book : books) {
+            // Java strings hold two bytes per character, the description is kept encoded.
+            size += 2 * (length(book.getTitle()) + length(book.getAuthor())
+                    + length(book.getPublishDate()) + length(book.getImageUrl()))
+                    + book.getDescriptionSize();
+        }
+        return size;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Database helper for the local index of fetched books. Manages database creation and
+ * version management.
+ * <p>
+ * Books are stored in the {@link #TABLE_BOOKS} table, and an FTS4 table that uses it as
+ * its content indexes their title, author and description for full-text search.
+ */
+public class BookDbHelper extends SQLiteOpenHelper {
+
+    /**
+     * Name of the database file
+     */
+    private static final String DATABASE_NAME = "books.db";
+
+    /**
+     * Database version. If you change the database schema, you must increment the
+     * database version.
+     */
+    private static final int DATABASE_VERSION = 1;
+
+    /**
+     * Name of the table holding the books.
+     */
+    public static final String TABLE_BOOKS = "books";
+
+    /**
+     * Name of the full-text index over {@link #TABLE_BOOKS}.
+     */
+    public static final String TABLE_BOOKS_FTS = "books_fts";
+
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_VOLUME_ID = "volume_id";
+    public static final String COLUMN_TITLE = "title";
+    public static final String COLUMN_AUTHOR = "author";
+    public static final String COLUMN_PUBLISH_DATE = "publish_date";
+    public static final String COLUMN_DESCRIPTION = "description";
+    public static final String COLUMN_IMAGE_URL = "image_url";
+
+    /**
+     * Time the book was last returned by the API, in milliseconds since the epoch.
+     */
+    public static final String COLUMN_LAST_SEEN = "last_seen";
+
+    /**
+     * Constructs a new instance of {@link BookDbHelper}.
+     *
+     * @param context of the app
+     */
+    public BookDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * This is called when the database is created for the first time.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BOOKS + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_VOLUME_ID + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_TITLE + " TEXT, "
+                + COLUMN_AUTHOR + " TEXT, "
+                + COLUMN_PUBLISH_DATE + " TEXT, "
+                + COLUMN_DESCRIPTION + " TEXT, "
+                + COLUMN_IMAGE_URL + " TEXT, "
+                + COLUMN_LAST_SEEN + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX " + TABLE_BOOKS + "_" + COLUMN_LAST_SEEN + " ON "
+                + TABLE_BOOKS + " (" + COLUMN_LAST_SEEN + ");");
+
+        // The full-text index reads its content from the books table, so the text is
+        // stored once. The triggers keep the index in sync with the table.
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_BOOKS_FTS + " USING fts4(content=\""
+                + TABLE_BOOKS + "\", " + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ", "
+                + COLUMN_DESCRIPTION + ");");
+        db.execSQL("CREATE TRIGGER books_bu BEFORE UPDATE ON " + TABLE_BOOKS + " BEGIN "
+                + "DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid = old." + COLUMN_ID + "; "
+                + "END;");
+        db.execSQL("CREATE TRIGGER books_bd BEFORE DELETE ON " + TABLE_BOOKS + " BEGIN "
+                + "DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid = old." + COLUMN_ID + "; "
+                + "END;");
+        db.execSQL("CREATE TRIGGER books_au AFTER UPDATE ON " + TABLE_BOOKS + " BEGIN "
+                + ftsInsert() + " END;");
+        db.execSQL("CREATE TRIGGER books_ai AFTER INSERT ON " + TABLE_BOOKS + " BEGIN "
+                + ftsInsert() + " END;");
+    }
+
+    /**
+     * Returns the statement adding the new row of the books table to the full-text index.
+     */
+    private static String ftsInsert() {
+        return "INSERT INTO " + TABLE_BOOKS_FTS + " (docid, " + COLUMN_TITLE + ", "
+                + COLUMN_AUTHOR + ", " + COLUMN_DESCRIPTION + ") VALUES (new." + COLUMN_ID
+                + ", new." + COLUMN_TITLE + ", new." + COLUMN_AUTHOR + ", new."
+                + COLUMN_DESCRIPTION + ");";
+    }
+
+    /**
+     * This is called when the database needs to be upgraded.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The database is still at version 1, so there's nothing to be done here.
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.booklistingapp;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * An {@link BookDisplayModel} holds the short text of a list item exactly as it is
+ * displayed, so binding a row is mostly field assignment.
+ * <p>
+ * Models are built by a {@link Formatter} on the loader thread, once per {@link Book}.
+ * The description isn't part of the model: it stays encoded in the book until its row
+ * is bound, see {@link Formatter#formatDescription}.
+ */
+public class BookDisplayModel {
+
+    /**
+     * Title of the book.
+     */
+    public final String title;
+
+    /**
+     * Author line, "By " followed by the authors.
+     */
+    public final String authorLine;
+
+    /**
+     * Release line, "Released: " followed by the publish date.
+     */
+    public final String dateLine;
+
+    /**
+     * Image URL of the book.
+     */
+    public final String imageUrl;
+
+    private BookDisplayModel(String title, String authorLine, String dateLine,
+                             String imageUrl) {
+        this.title = title;
+        this.authorLine = authorLine;
+        this.dateLine = dateLine;
+        this.imageUrl = imageUrl;
+    }
+
+    /**
+     * Builds {@link BookDisplayModel}s. It holds the localized prefixes so resources are
+     * read once rather than for every row.
+     */
+    public static class Formatter {
+
+        /**
+         * Number of characters kept from a description. The list item shows three lines,
+         * so handing the TextView a whole description only costs layout time.
+         */
+        public static final int MAX_DESCRIPTION_LENGTH = 300;
+
+        /**
+         * Number of bytes of a description decoded for a row. A character takes at most
+         * four bytes of UTF-8, and mostly one, so this always holds more characters than
+         * are kept.
+         */
+        private static final int MAX_DESCRIPTION_BYTES = MAX_DESCRIPTION_LENGTH * 4;
+
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        /**
+         * Text displayed before the authors.
+         */
+        private final String mByAuthor;
+
+        /**
+         * Text displayed before the publish date.
+         */
+        private final String mReleased;
+
+        /**
+         * Constructs a new {@link Formatter}.
+         *
+         * @param byAuthor is the text displayed before the authors.
+         * @param released is the text displayed before the publish date.
+         */
+        public Formatter(String byAuthor, String released) {
+            mByAuthor = byAuthor;
+            mReleased = released;
+        }
+
+        /**
+         * Returns the display model of the book.
+         */
+        public BookDisplayModel format(Book book) {
+            return new BookDisplayModel(
+                    book.getTitle(),
+                    mByAuthor + book.getAuthor(),
+                    mReleased + book.getPublishDate(),
+                    book.getImageUrl());
+        }
+
+        /**
+         * Builds the display model of every book that doesn't have one yet.
+         */
+        public void prepare(List<Book> books) {
+            for (Book book : books) {
+                if (book.getDisplayModel() == null) {
+                    book.setDisplayModel(format(book));
+                }
+            }
+        }
+
+        /**
+         * Returns the description of the book, decoded and cut to what the list item can
+         * show. This is called when the row is bound, so only the start of a long
+         * description is decoded.
+         */
+        public static String formatDescription(Book book) {
+            byte[] bytes = book.getDescriptionBytes();
+            int length = bytes.length;
+            if (length > MAX_DESCRIPTION_BYTES) {
+                // Cut before the continuation bytes of the character at the limit.
+                length = MAX_DESCRIPTION_BYTES;
+                while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+                    length--;
+                }
+            }
+            return truncate(new String(bytes, 0, length, UTF_8));
+        }
+
+        /**
+         * Cuts the text at the last space before {@link #MAX_DESCRIPTION_LENGTH} characters.
+         */
+        private static String truncate(String text) {
+            if (text == null || text.length() <= MAX_DESCRIPTION_LENGTH) {
+                return text;
+            }
+            int end = text.lastIndexOf(' ', MAX_DESCRIPTION_LENGTH);
+            if (end <= 0) {
+                end = MAX_DESCRIPTION_LENGTH;
+            }
+            return text.substring(0, end) + '…';
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.booklistingapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Persistent full-text index of every {@link Book} fetched from the network, so a search
+ * can be answered locally right away, and without a network connection.
+ */
+public final class BookIndex {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = BookIndex.class.getName();
+
+    /**
+     * Number of books kept in the index, the ones seen longest ago are removed first.
+     */
+    private static final int MAX_BOOKS = 5000;
+
+    private static BookIndex sInstance;
+
+    private final BookDbHelper mDbHelper;
+
+    /**
+     * Single thread the books are written on, so indexing never delays a result.
+     */
+    private final ExecutorService mWriteExecutor = Executors.newSingleThreadExecutor();
+
+    private BookIndex(Context context) {
+        mDbHelper = new BookDbHelper(context.getApplicationContext());
+    }
+
+    /**
+     * Returns the index of the app.
+     */
+    public static synchronized BookIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookIndex(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Adds the books to the index in the background, updating the ones already in it.
+     * Books without a volume id can't be told apart and are skipped.
+     */
+    public void addAsync(List<Book> books) {
+        if (books == null || books.isEmpty()) {
+            return;
+        }
+        final List<Book> copy = new ArrayList<>(books);
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    add(copy);
+                } catch (SQLException e) {
+                    Log.e(LOG_TAG, "Problem indexing books", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds the books to the index, updating the ones already in it.
+     */
+    private void add(List<Book> books) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            for (Book book : books) {
+                if (book.getId() == null) {
+                    continue;
+                }
+                ContentValues values = new ContentValues();
+                values.put(BookDbHelper.COLUMN_VOLUME_ID, book.getId());
+                values.put(BookDbHelper.COLUMN_TITLE, book.getTitle());
+                values.put(BookDbHelper.COLUMN_AUTHOR, book.getAuthor());
+                values.put(BookDbHelper.COLUMN_PUBLISH_DATE, book.getPublishDate());
+                // Books fetched without their description keep the one already indexed.
+                if (book.getDescriptionSize() > 0) {
+                    values.put(BookDbHelper.COLUMN_DESCRIPTION, book.getDescription());
+                }
+                values.put(BookDbHelper.COLUMN_IMAGE_URL, book.getImageUrl());
+                values.put(BookDbHelper.COLUMN_LAST_SEEN, now);
+
+                // Update the book if it is already indexed, otherwise insert it. The
+                // triggers of the table keep the full-text index in sync.
+                int updated = db.update(BookDbHelper.TABLE_BOOKS, values,
+                        BookDbHelper.COLUMN_VOLUME_ID + " = ?", new String[]{book.getId()});
+                if (updated == 0) {
+                    db.insert(BookDbHelper.TABLE_BOOKS, null, values);
+                }
+            }
+
+            // Keep the index bounded by removing the books seen longest ago.
+            db.execSQL("DELETE FROM " + BookDbHelper.TABLE_BOOKS + " WHERE "
+                    + BookDbHelper.COLUMN_ID + " IN (SELECT " + BookDbHelper.COLUMN_ID
+                    + " FROM " + BookDbHelper.TABLE_BOOKS + " ORDER BY "
+                    + BookDbHelper.COLUMN_LAST_SEEN + " DESC LIMIT -1 OFFSET " + MAX_BOOKS
+                    + ");");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the indexed books whose title, author or description contain every word of
+     * the query (as a prefix), most recently seen first. This runs on the calling thread.
+     *
+     * @param query is the text entered by the user.
+     * @param limit is the maximum number of books to return.
+     */
+    public List<Book> search(String query, int limit) {
+        List<Book> books = new ArrayList<>();
+        String match = toMatchExpression(query);
+        if (match.isEmpty()) {
+            return books;
+        }
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT b." + BookDbHelper.COLUMN_VOLUME_ID
+                + ", b." + BookDbHelper.COLUMN_TITLE
+                + ", b." + BookDbHelper.COLUMN_AUTHOR
+                + ", b." + BookDbHelper.COLUMN_PUBLISH_DATE
+                + ", b." + BookDbHelper.COLUMN_DESCRIPTION
+                + ", b." + BookDbHelper.COLUMN_IMAGE_URL
+                + " FROM " + BookDbHelper.TABLE_BOOKS + " b WHERE b." + BookDbHelper.COLUMN_ID
+                + " IN (SELECT docid FROM " + BookDbHelper.TABLE_BOOKS_FTS + " WHERE "
+                + BookDbHelper.TABLE_BOOKS_FTS + " MATCH ?)"
+                + " ORDER BY b." + BookDbHelper.COLUMN_LAST_SEEN + " DESC LIMIT " + limit,
+                new String[]{match});
+        try {
+            while (cursor.moveToNext()) {
+                books.add(new Book(cursor.getString(0), cursor.getString(1),
+                        cursor.getString(2), cursor.getString(3), cursor.getString(4),
+                        cursor.getString(5)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return books;
+    }
+
+    /**
+     * Turns the query into an FTS MATCH expression: every word becomes a prefix term, and
+     * everything but letters and digits is dropped so user input can't form FTS syntax.
+     */
+    private static String toMatchExpression(String query) {
+        StringBuilder match = new StringBuilder();
+        if (query == null) {
+            return "";
+        }
+        for (String word : query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{Nd}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(word).append('*');
+        }
+        return match.toString();
+    }
+}
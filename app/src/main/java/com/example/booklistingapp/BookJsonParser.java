@@ -0,0 +1,232 @@
+package com.example.booklistingapp;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Streaming parser of Google Books volume search responses.
+ * <p>
+ * It depends on nothing but {@link JsonReader} and {@link Book}, so it can be measured on
+ * a plain JVM by the benchmark module.
+ */
+public final class BookJsonParser {
+
+    /**
+     * Keys of the thumbnails in "imageLinks", the small one is about half the size.
+     */
+    public static final String SMALL_THUMBNAIL = "smallThumbnail";
+    public static final String THUMBNAIL = "thumbnail";
+
+    /**
+     * Partial response selector of the fields the parser reads, sent as the "fields"
+     * parameter so the API leaves everything else out of the response. Keep it in sync
+     * with the parser.
+     */
+    public static final String FIELDS = buildFields(true, SMALL_THUMBNAIL);
+
+    /**
+     * Told about each book as soon as it has been parsed, while the rest of the response
+     * is still being read.
+     */
+    public interface ProgressListener {
+        /**
+         * Called on the parsing thread after each book is added.
+         *
+         * @param books is the list being filled, which must be copied to be kept.
+         */
+        void onBooksParsed(List<Book> books);
+    }
+
+    private BookJsonParser() {
+
+    }
+
+    /**
+     * Returns the partial response selector of the fields the parser reads.
+     *
+     * @param includeDescriptions is true to include the description of each book.
+     * @param thumbnailKey        is {@link #SMALL_THUMBNAIL} or {@link #THUMBNAIL}.
+     */
+    public static String buildFields(boolean includeDescriptions, String thumbnailKey) {
+        return "items(id,volumeInfo(title,authors,publishedDate,"
+                + (includeDescriptions ? "description," : "")
+                + "imageLinks/" + thumbnailKey + "))";
+    }
+
+    /**
+     * Parse the JSON response straight from the {@link InputStream} and add a {@link Book}
+     * to the list for each volume found under "items". Fields we don't display are
+     * skipped without being decoded. The books parsed before an error stay in the list.
+     *
+     * @throws IOException           if the stream can't be read.
+     * @throws IllegalStateException if the response is malformed.
+     */
+    public static void readBooks(InputStream inputStream, List<Book> books)
+            throws IOException {
+        readBooks(inputStream, books, null);
+    }
+
+    /**
+     * Parse the JSON response like {@link #readBooks(InputStream, List)}, telling the
+     * listener about each book as it is added.
+     *
+     * @param listener is told about each book, may be null.
+     */
+    public static void readBooks(InputStream inputStream, List<Book> books,
+                                 ProgressListener listener) throws IOException {
+        JsonReader reader = new JsonReader(
+                new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            // Only the "items" array is of interest, everything else in the
+            // response (kind, totalItems) is skipped.
+            if ("items".equals(reader.nextName())) {
+                readItems(reader, books, listener);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read every volume of the "items" array and add a {@link Book} for each to the list.
+     */
+    private static void readItems(JsonReader reader, List<Book> books,
+                                  ProgressListener listener) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Book book = readItem(reader);
+            if (book != null) {
+                books.add(book);
+                if (listener != null) {
+                    listener.onBooksParsed(books);
+                }
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Read a single volume and return its {@link Book}, or null if it has no "volumeInfo".
+     */
+    private static Book readItem(JsonReader reader) throws IOException {
+        String id = null;
+        Book book = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("id".equals(name) && reader.peek() == JsonToken.STRING) {
+                id = reader.nextString();
+            } else if ("volumeInfo".equals(name)) {
+                book = readVolumeInfo(reader, id);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // The API sends "id" before "volumeInfo", but don't rely on the order.
+        if (book != null && book.getId() == null && id != null) {
+            book = new Book(id, book.getTitle(), book.getAuthor(), book.getPublishDate(),
+                    book.getDescription(), book.getImageUrl());
+        }
+        return book;
+    }
+
+    /**
+     * Read the "volumeInfo" object of a volume. Missing optional fields are left empty
+     * instead of failing the whole response.
+     */
+    private static Book readVolumeInfo(JsonReader reader, String id) throws IOException {
+        String title = "";
+        String author = "";
+        String publishDate = "";
+        String description = "";
+        String imageUrl = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "title":
+                    title = reader.nextString();
+                    break;
+                case "authors":
+                    author = readAuthors(reader);
+                    break;
+                case "publishedDate":
+                    publishDate = reader.nextString();
+                    break;
+                case "description":
+                    // JsonReader only hands out whole strings, so this one is garbage as
+                    // soon as the Book has encoded it.
+                    description = reader.nextString();
+                    break;
+                case "imageLinks":
+                    imageUrl = readThumbnail(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        // Create a new {@link Book} object with the id, title, author, publishDate,
+        // description and image url from the JSON response
+        return new Book(id, title, author, publishDate, description, imageUrl);
+    }
+
+    /**
+     * Read the "authors" array and join the names into a single comma separated String.
+     */
+    private static String readAuthors(JsonReader reader) throws IOException {
+        StringBuilder authors = new StringBuilder();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            if (authors.length() > 0) {
+                authors.append(", ");
+            }
+            authors.append(reader.nextString());
+        }
+        reader.endArray();
+        return authors.toString();
+    }
+
+    /**
+     * Read the "imageLinks" object and return the value for the key called "smallThumbnail",
+     * or for the key called "thumbnail" when only that one was requested.
+     */
+    private static String readThumbnail(JsonReader reader) throws IOException {
+        String smallImageUrl = "";
+        String imageUrl = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (SMALL_THUMBNAIL.equals(name) && reader.peek() == JsonToken.STRING) {
+                smallImageUrl = reader.nextString();
+            } else if (THUMBNAIL.equals(name) && reader.peek() == JsonToken.STRING) {
+                imageUrl = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return smallImageUrl.isEmpty() ? imageUrl : smallImageUrl;
+    }
+}
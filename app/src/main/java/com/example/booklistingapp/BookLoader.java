@@ -1,16 +1,20 @@
 package com.example.booklistingapp;
 
 import android.content.Context;
-import android.content.AsyncTaskLoader;
+import android.os.CancellationSignal;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Loads a list of books by using an AsyncTask to perform the
- * network request to the given URL.
+ * Loads a list of books by using the {@link LoadingEngine} to perform the
+ * network requests to the given page URLs.
  */
-public class BookLoader extends AsyncTaskLoader<List<Book>> {
+public class BookLoader extends EngineLoader<List<Book>> {
 
     /**
      * Tag for log messages
@@ -18,9 +22,46 @@ public class BookLoader extends AsyncTaskLoader<List<Book>> {
     private static final String LOG_TAG = BookLoader.class.getName();
 
     /**
-     * Query URL
+     * Minimum time between two partial results, a frame at 60 fps.
      */
-    private String mUrl;
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    /**
+     * URL of each page to load, in result order.
+     */
+    private List<String> mPageUrls;
+
+    /**
+     * Index of the first book of the first page.
+     */
+    private int mStartIndex;
+
+    /**
+     * Number of books requested per page.
+     */
+    private int mPageSize;
+
+    /**
+     * Number of books the loaded pages returned, before duplicates were dropped.
+     */
+    private volatile int mFetchedCount;
+
+    /**
+     * False once a page came back short, meaning there are no more results.
+     */
+    private volatile boolean mHasMore;
+
+    /**
+     * Builds the display model of each loaded book on a CPU thread.
+     */
+    private BookDisplayModel.Formatter mFormatter;
+
+    /**
+     * Start time of the load in flight, 0 once its complete result has been delivered.
+     */
+    private long mLoadStartNanos;
+
+    private boolean mFirstResultDelivered;
 
     /**
      * Constructs a new {@link BookLoader}.
@@ -29,28 +70,156 @@ public class BookLoader extends AsyncTaskLoader<List<Book>> {
      * @param url     to load data from
      */
     public BookLoader(Context context, String url) {
+        this(context, Collections.singletonList(url), 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a new {@link BookLoader} for consecutive pages of results, which are
+     * fetched at the same time and merged in order.
+     *
+     * @param context    of the activity
+     * @param pageUrls   is the url of each page to load, in result order.
+     * @param startIndex is the index of the first book of the first page.
+     * @param pageSize   is the number of books requested per page.
+     */
+    public BookLoader(Context context, List<String> pageUrls, int startIndex, int pageSize) {
         super(context);
-        mUrl = url;
+        mPageUrls = pageUrls;
+        mStartIndex = startIndex;
+        mPageSize = pageSize;
+        mFormatter = new BookDisplayModel.Formatter(
+                context.getString(R.string.by_author), context.getString(R.string.released));
+    }
+
+    /**
+     * Returns the index of the first book of the first page this loader loads.
+     */
+    public int getStartIndex() {
+        return mStartIndex;
     }
 
+    /**
+     * Returns the index of the first book of the page following the loaded ones.
+     */
+    public int getNextStartIndex() {
+        return mStartIndex + mFetchedCount;
+    }
+
+    /**
+     * Returns true if the last loaded page was full, so there may be more results.
+     */
+    public boolean hasMore() {
+        return mHasMore;
+    }
+
+    /**
+     * Fetches the pages on the network pool, then merges and formats them on the CPU
+     * pool. The first page of a query is foreground work, later pages are prefetched
+     * ahead of the scrolling and give way to it.
+     */
     @Override
-    protected void onStartLoading() {
-        Log.i(LOG_TAG, "TEST: onStartLoading() called ...");
-        forceLoad();
+    protected void startLoad(final CancellationSignal signal) {
+        Log.i(LOG_TAG, "TEST: startLoad() called ...");
+        mLoadStartNanos = FetchMetrics.start();
+        mFirstResultDelivered = false;
+        if (mPageUrls == null || mPageUrls.isEmpty()) {
+            publish(signal, null);
+            return;
+        }
+
+        final LoadingEngine.Priority priority = mStartIndex == 0
+                ? LoadingEngine.Priority.FOREGROUND : LoadingEngine.Priority.PREFETCH;
+        // Fetch every page at the same time (or from the {@link BookCache}), then
+        // merge them in order without duplicate volumes. The books of the first page are
+        // shown as they are parsed, while the rest of the response is still downloading.
+        PagePrefetcher.Callback callback = new PagePrefetcher.Callback() {
+            @Override
+            public void onPagesFetched(final List<List<Book>> pages) {
+                LoadingEngine.execute(LoadingEngine.Pool.CPU,
+                        new LoadingEngine.Task<>(priority, signal, new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                publish(signal, mergePages(pages));
+                                return null;
+                            }
+                        }));
+            }
+        };
+        PagePrefetcher.fetchPages(mPageUrls, priority, signal, new PartialPublisher(signal),
+                callback);
     }
 
     /**
-     * This is on a background thread.
+     * Records the time to the first books and to the complete result of the load, then
+     * delivers them.
      */
     @Override
-    public List<Book> loadInBackground() {
-        Log.i(LOG_TAG, "TEST: loadInBackground() called ...");
-        if (mUrl == null) {
+    public void deliverResult(List<Book> books) {
+        if (books != null && mLoadStartNanos != 0) {
+            if (!mFirstResultDelivered) {
+                FetchMetrics.record(FetchMetrics.Stage.FIRST_RESULT, mLoadStartNanos);
+                mFirstResultDelivered = true;
+            }
+            if (!isPartial()) {
+                FetchMetrics.record(FetchMetrics.Stage.COMPLETE_RESULT, mLoadStartNanos);
+                mLoadStartNanos = 0;
+            }
+        }
+        super.deliverResult(books);
+    }
+
+    /**
+     * This is on a CPU thread of the {@link LoadingEngine}.
+     */
+    private List<Book> mergePages(List<List<Book>> pages) {
+        if (pages.isEmpty() || pages.get(0) == null) {
             return null;
         }
 
-        // Perform the network request, parse the response, and extract a list of books.
-        List<Book> books = QueryUtils.fetchBookData(mUrl);
+        mFetchedCount = PagePrefetcher.countFetched(pages, mPageSize);
+        mHasMore = !PagePrefetcher.reachedEnd(pages, mPageSize);
+        List<Book> books = PagePrefetcher.merge(pages, mPageSize);
+
+        // Keep every fetched book in the local index for later offline searches.
+        BookIndex.getInstance(getContext()).addAsync(books);
+
+        // Format the text of each row here, so binding it is plain field assignment.
+        mFormatter.prepare(books);
         return books;
     }
+
+    /**
+     * Hands the books of the first page parsed so far to the main thread, at most once per
+     * frame. Called on the network threads of a single load.
+     */
+    private class PartialPublisher implements BookJsonParser.ProgressListener {
+
+        private final CancellationSignal mSignal;
+
+        /**
+         * Number of books in the last partial result, a retried or hedged request that
+         * is behind it is not shown.
+         */
+        private int mPublishedCount;
+
+        private long mLastPublishNanos;
+
+        PartialPublisher(CancellationSignal signal) {
+            mSignal = signal;
+        }
+
+        @Override
+        public synchronized void onBooksParsed(List<Book> books) {
+            long now = System.nanoTime();
+            if (books.size() <= mPublishedCount
+                    || (mPublishedCount > 0 && now - mLastPublishNanos < FRAME_NANOS)) {
+                return;
+            }
+            mPublishedCount = books.size();
+            mLastPublishNanos = now;
+            List<Book> partial = new ArrayList<>(books);
+            mFormatter.prepare(partial);
+            publishPartial(mSignal, partial);
+        }
+    }
 }
@@ -0,0 +1,541 @@
+package com.example.booklistingapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sorts and filters the books already loaded, without going back to the network.
+ * <p>
+ * The sort keys of each book, including its publish date as a number, are computed once
+ * and the sort indices are kept between queries, so a new order or filter only walks
+ * arrays. When more books are appended the keys and indices are extended instead of
+ * rebuilt, and a filter that narrows the previous one only checks the books that
+ * matched it. Everything runs on a background thread, the filtering of large lists is
+ * split over the cores, and only the final list is handed back on the main thread.
+ */
+public final class BookQueryEngine {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = BookQueryEngine.class.getName();
+
+    /**
+     * Lists with at least this many books are filtered on every core.
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Threads the filtering of large lists is split over, shared by every engine.
+     */
+    private static ExecutorService sFilterPool;
+
+    /**
+     * The orders the books can be listed in.
+     */
+    public enum SortOrder {
+        /** The order the books were loaded in. */
+        RELEVANCE,
+        /** Most recently published first, books without a date last. */
+        NEWEST,
+        /** Least recently published first, books without a date last. */
+        OLDEST,
+        /** By author, books without an author last. */
+        AUTHOR,
+        /** By title, books without a title last. */
+        TITLE
+    }
+
+    /**
+     * Receives the sorted and filtered books on the main thread.
+     */
+    public interface Callback {
+        void onResult(List<Book> books);
+    }
+
+    private final Callback mCallback;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Single thread the queries are run on, so they never overlap.
+     */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * The latest books, order and filter requested, guarded by this engine. Every
+     * request increments the generation, so superseded results are dropped.
+     */
+    private List<Book> mRequestedBooks = Collections.emptyList();
+    private SortOrder mRequestedOrder = SortOrder.RELEVANCE;
+    private String mRequestedFilter = "";
+    private int mGeneration;
+
+    /**
+     * Generation of the last query run, only used on the query thread.
+     */
+    private int mLastRunGeneration = -1;
+
+    /**
+     * Books the keys below were computed for, only used on the query thread.
+     */
+    private List<Book> mBooks = Collections.emptyList();
+
+    /**
+     * Number of books of {@link #mBooks} whose keys have been computed.
+     */
+    private int mKeyCount;
+
+    /**
+     * Publish date of each book as yyyymmdd, 0 when it has none.
+     */
+    private long[] mDateKeys = new long[0];
+
+    /**
+     * Author and title of each book in lower case.
+     */
+    private String[] mAuthorKeys = new String[0];
+    private String[] mTitleKeys = new String[0];
+
+    /**
+     * Title, author and publish date of each book in lower case, matched by the filter.
+     */
+    private String[] mSearchText = new String[0];
+
+    /**
+     * Positions of the books with keys, sorted in each order built so far.
+     */
+    private final Map<SortOrder, int[]> mSortIndices = new EnumMap<>(SortOrder.class);
+
+    /**
+     * Filter the matches below were computed for, and the number of books they cover.
+     */
+    private String mLastFilter = "";
+    private int mMatchCount;
+    private boolean[] mMatches = new boolean[0];
+
+    /**
+     * Constructs a new {@link BookQueryEngine}.
+     *
+     * @param callback receives every new result on the main thread.
+     */
+    public BookQueryEngine(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Sets the books to sort and filter. The list must not be modified afterwards.
+     * <p>
+     * In load order and without a filter there is nothing to compute, so the books are
+     * handed back right away, on the calling thread.
+     */
+    public void setBooks(List<Book> books) {
+        synchronized (this) {
+            mRequestedBooks = books;
+            mGeneration++;
+            if (mRequestedOrder != SortOrder.RELEVANCE || !mRequestedFilter.isEmpty()) {
+                submitQuery();
+                return;
+            }
+        }
+        mCallback.onResult(books);
+    }
+
+    /**
+     * Sets the order the books are listed in.
+     */
+    public synchronized void setSortOrder(SortOrder order) {
+        if (order == mRequestedOrder) {
+            return;
+        }
+        mRequestedOrder = order;
+        mGeneration++;
+        submitQuery();
+    }
+
+    /**
+     * Keeps only the books whose title, author or publish date contain every word of the
+     * filter, ignoring case. An empty filter keeps every book.
+     */
+    public synchronized void setFilter(String filter) {
+        String normalized = normalizeFilter(filter);
+        if (normalized.equals(mRequestedFilter)) {
+            return;
+        }
+        mRequestedFilter = normalized;
+        mGeneration++;
+        submitQuery();
+    }
+
+    /**
+     * Returns true if a filter is set, so fewer books may be listed than were loaded.
+     */
+    public synchronized boolean isFiltering() {
+        return !mRequestedFilter.isEmpty();
+    }
+
+    /**
+     * Stops the query thread. Results still pending are dropped.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+        mMainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private void submitQuery() {
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runLatestQuery();
+            }
+        });
+    }
+
+    /**
+     * Runs the latest requested query, unless an earlier task already did, and hands
+     * its result to the main thread.
+     */
+    private void runLatestQuery() {
+        List<Book> books;
+        SortOrder order;
+        String filter;
+        final int generation;
+        synchronized (this) {
+            books = mRequestedBooks;
+            order = mRequestedOrder;
+            filter = mRequestedFilter;
+            generation = mGeneration;
+        }
+        if (generation == mLastRunGeneration) {
+            return;
+        }
+        mLastRunGeneration = generation;
+
+        final List<Book> result;
+        try {
+            result = query(books, order, filter);
+        } catch (InterruptedException e) {
+            // The engine was shut down.
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (BookQueryEngine.this) {
+                    if (generation != mGeneration) {
+                        return;
+                    }
+                }
+                mCallback.onResult(result);
+            }
+        });
+    }
+
+    /**
+     * Returns the books in the given order, keeping only the ones matching the filter.
+     * Only called on the query thread, or directly by the tests.
+     */
+    List<Book> query(List<Book> books, SortOrder order, String filter)
+            throws InterruptedException {
+        updateKeys(books);
+        int count = mKeyCount;
+        if (!filter.isEmpty()) {
+            updateMatches(filter, count);
+        }
+
+        List<Book> result = new ArrayList<>();
+        int[] index = order == SortOrder.RELEVANCE ? null : getSortIndex(order);
+        for (int i = 0; i < count; i++) {
+            int position = index == null ? i : index[i];
+            if (filter.isEmpty() || mMatches[position]) {
+                result.add(books.get(position));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes the keys of the books. When the books start with the ones the keys were
+     * computed for, as they do when a page is appended, only the new ones are computed.
+     */
+    private void updateKeys(List<Book> books) {
+        if (books != mBooks) {
+            int kept = 0;
+            if (books.size() >= mKeyCount) {
+                while (kept < mKeyCount && books.get(kept) == mBooks.get(kept)) {
+                    kept++;
+                }
+            }
+            if (kept < mKeyCount) {
+                // The list was replaced, start over.
+                kept = 0;
+                mSortIndices.clear();
+                mMatchCount = 0;
+            }
+            mBooks = books;
+            mKeyCount = kept;
+        }
+
+        int size = books.size();
+        if (mKeyCount == size) {
+            return;
+        }
+        if (mDateKeys.length < size) {
+            int capacity = Math.max(size, mDateKeys.length * 2);
+            mDateKeys = Arrays.copyOf(mDateKeys, capacity);
+            mAuthorKeys = Arrays.copyOf(mAuthorKeys, capacity);
+            mTitleKeys = Arrays.copyOf(mTitleKeys, capacity);
+            mSearchText = Arrays.copyOf(mSearchText, capacity);
+            mMatches = Arrays.copyOf(mMatches, capacity);
+        }
+        int previousCount = mKeyCount;
+        for (int i = previousCount; i < size; i++) {
+            Book book = books.get(i);
+            mDateKeys[i] = parseDateKey(book.getPublishDate());
+            mAuthorKeys[i] = toLowerCase(book.getAuthor());
+            mTitleKeys[i] = toLowerCase(book.getTitle());
+            mSearchText[i] = toLowerCase(book.getTitle()) + '\n'
+                    + toLowerCase(book.getAuthor()) + '\n'
+                    + toLowerCase(book.getPublishDate());
+        }
+        mKeyCount = size;
+
+        // Merge the new books into the indices already built.
+        for (Map.Entry<SortOrder, int[]> entry : mSortIndices.entrySet()) {
+            entry.setValue(extendSortIndex(entry.getKey(), entry.getValue(),
+                    previousCount, size));
+        }
+    }
+
+    /**
+     * Returns the positions of the books sorted in the given order, building the index
+     * the first time the order is used.
+     */
+    private int[] getSortIndex(SortOrder order) {
+        int[] index = mSortIndices.get(order);
+        if (index == null) {
+            index = extendSortIndex(order, new int[0], 0, mKeyCount);
+            mSortIndices.put(order, index);
+        }
+        return index;
+    }
+
+    /**
+     * Sorts the books from {@code from} to {@code to} and merges them into the index of
+     * the books before them.
+     */
+    private int[] extendSortIndex(SortOrder order, int[] index, int from, int to) {
+        Comparator<Integer> comparator = getComparator(order);
+        Integer[] added = new Integer[to - from];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = from + i;
+        }
+        Arrays.sort(added, comparator);
+
+        int[] merged = new int[to];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < from && j < added.length) {
+            if (comparator.compare(index[i], added[j]) <= 0) {
+                merged[k++] = index[i++];
+            } else {
+                merged[k++] = added[j++];
+            }
+        }
+        while (i < from) {
+            merged[k++] = index[i++];
+        }
+        while (j < added.length) {
+            merged[k++] = added[j++];
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the comparator of book positions for the order. Books comparing equal keep
+     * their load order, so merged indices are the same as sorted ones.
+     */
+    private Comparator<Integer> getComparator(final SortOrder order) {
+        return new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int result;
+                switch (order) {
+                    case NEWEST:
+                        result = compareDates(mDateKeys[a], mDateKeys[b], true);
+                        break;
+                    case OLDEST:
+                        result = compareDates(mDateKeys[a], mDateKeys[b], false);
+                        break;
+                    case AUTHOR:
+                        result = compareText(mAuthorKeys[a], mAuthorKeys[b]);
+                        break;
+                    case TITLE:
+                        result = compareText(mTitleKeys[a], mTitleKeys[b]);
+                        break;
+                    default:
+                        result = 0;
+                        break;
+                }
+                return result != 0 ? result : a.compareTo(b);
+            }
+        };
+    }
+
+    /**
+     * Compares two date keys, a missing date (0) always after the other one whichever
+     * the direction.
+     */
+    private static int compareDates(long first, long second, boolean descending) {
+        if (first == 0 || second == 0) {
+            return first == second ? 0 : (first == 0 ? 1 : -1);
+        }
+        int result = first < second ? -1 : (first == second ? 0 : 1);
+        return descending ? -result : result;
+    }
+
+    /**
+     * Compares two keys, a missing one after the other one.
+     */
+    private static int compareText(String first, String second) {
+        if (first.isEmpty() || second.isEmpty()) {
+            return first.isEmpty() == second.isEmpty() ? 0 : (first.isEmpty() ? 1 : -1);
+        }
+        return first.compareTo(second);
+    }
+
+    /**
+     * Computes which books match the filter. A filter that extends the previous one can
+     * only match fewer books, so only the books that matched before are checked again.
+     */
+    private void updateMatches(String filter, int count) throws InterruptedException {
+        final boolean narrowing = filter.startsWith(mLastFilter);
+        final int checkedCount = narrowing ? mMatchCount : 0;
+        final String[] terms = filter.split(" ");
+
+        if (count < PARALLEL_THRESHOLD || PARALLELISM < 2) {
+            matchRange(terms, 0, count, checkedCount);
+        } else {
+            // Split the books into one range per core, each range is written by one task.
+            List<Callable<Void>> tasks = new ArrayList<>(PARALLELISM);
+            int chunk = (count + PARALLELISM - 1) / PARALLELISM;
+            for (int start = 0; start < count; start += chunk) {
+                final int from = start;
+                final int to = Math.min(start + chunk, count);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        matchRange(terms, from, to, checkedCount);
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> future : getFilterPool().invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Problem filtering books", e);
+                }
+            }
+        }
+        mLastFilter = filter;
+        mMatchCount = count;
+    }
+
+    /**
+     * Checks the books from {@code from} to {@code to} against the terms. The books
+     * before {@code checkedCount} are only checked again if they matched before.
+     */
+    private void matchRange(String[] terms, int from, int to, int checkedCount) {
+        for (int i = from; i < to; i++) {
+            if (i < checkedCount && !mMatches[i]) {
+                continue;
+            }
+            mMatches[i] = containsAll(mSearchText[i], terms);
+        }
+    }
+
+    private static boolean containsAll(String text, String[] terms) {
+        for (String term : terms) {
+            if (!text.contains(term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static synchronized ExecutorService getFilterPool() {
+        if (sFilterPool == null) {
+            sFilterPool = Executors.newFixedThreadPool(PARALLELISM);
+        }
+        return sFilterPool;
+    }
+
+    /**
+     * Returns the filter in lower case with runs of whitespace collapsed to a single space.
+     */
+    private static String normalizeFilter(String filter) {
+        if (filter == null) {
+            return "";
+        }
+        return filter.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static String toLowerCase(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Parses a publish date of the form "yyyy", "yyyy-mm" or "yyyy-mm-dd" into yyyymmdd,
+     * with the missing parts as 0. Returns 0 if there is no year to parse.
+     */
+    static long parseDateKey(String date) {
+        if (date == null) {
+            return 0;
+        }
+        String[] parts = date.split("-", 3);
+        long year = parseLeadingNumber(parts[0]);
+        if (year <= 0) {
+            return 0;
+        }
+        long month = parts.length > 1 ? parseLeadingNumber(parts[1]) : 0;
+        long day = parts.length > 2 ? parseLeadingNumber(parts[2]) : 0;
+        return year * 10000 + Math.min(month, 99) * 100 + Math.min(day, 99);
+    }
+
+    /**
+     * Returns the number the text starts with, or 0 if it doesn't start with a digit.
+     */
+    private static long parseLeadingNumber(String text) {
+        long value = 0;
+        for (int i = 0; i < text.length() && i < 9; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
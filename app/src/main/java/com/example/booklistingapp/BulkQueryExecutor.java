@@ -0,0 +1,423 @@
+package com.example.booklistingapp;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs large batches of catalog lookups, such as lists of titles or "isbn:" queries.
+ * <p>
+ * Queries run on a bounded pool of worker threads, and a {@link TokenBucket} limits the
+ * rate requests are sent at, so a batch of thousands stays inside the API quotas. Every
+ * attempt takes a token, retries included. Each result is handed to the {@link Callback}
+ * as soon as its query completes.
+ * <p>
+ * Requests are sent by a {@link Transport}, so batches can run against a local mock
+ * server or a fake in a JVM test. The executor has a circuit breaker of its own, so a
+ * failing batch doesn't refuse the searches of the app, and needs nothing from the
+ * Android framework.
+ */
+public class BulkQueryExecutor {
+
+    /**
+     * URL for books data from the google books data set.
+     */
+    public static final String GOOGLE_BOOKS_REQUEST_URL =
+            "https://www.googleapis.com/books/v1/volumes";
+
+    /**
+     * Time an idle worker thread is kept alive, in seconds.
+     */
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Consecutive failed queries that open the circuit of the executor, and the time it
+     * then stays open.
+     */
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = 30000;
+
+    /**
+     * Receives the results of a batch. Methods are called on the worker threads.
+     */
+    public interface Callback {
+
+        /**
+         * Called when a query completed.
+         *
+         * @param query is the query as it was submitted.
+         * @param books are the books found, or null if the request failed.
+         */
+        void onResult(String query, List<Book> books);
+
+        /**
+         * Called once every query of the batch completed or was cancelled.
+         */
+        void onFinished();
+    }
+
+    /**
+     * Sends the requests of the executor.
+     */
+    public interface Transport {
+
+        /**
+         * Makes a single attempt at a request, on the calling thread.
+         *
+         * @param requestUrl   is the URL of the volume search.
+         * @param cancellation aborts the request when cancelled.
+         * @return the books found.
+         * @throws IOException if the attempt failed or was cancelled.
+         */
+        List<Book> fetch(String requestUrl, Cancellation cancellation) throws IOException;
+    }
+
+    /**
+     * Cancels a request of the executor, including its wait for a token or a retry.
+     */
+    public static final class Cancellation {
+
+        private boolean mCancelled;
+
+        private Runnable mOnCancel;
+
+        /**
+         * Cancels the request and runs the listener, once.
+         */
+        public void cancel() {
+            Runnable onCancel;
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                onCancel = mOnCancel;
+                notifyAll();
+            }
+            if (onCancel != null) {
+                onCancel.run();
+            }
+        }
+
+        /**
+         * Returns true if the request was cancelled.
+         */
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Sets the listener run on cancellation, right away if it was already cancelled.
+         * Null removes it.
+         */
+        public void setOnCancelListener(Runnable onCancel) {
+            synchronized (this) {
+                mOnCancel = onCancel;
+                if (!mCancelled || onCancel == null) {
+                    return;
+                }
+            }
+            onCancel.run();
+        }
+
+        /**
+         * Waits for the given time, returning early with false if cancelled.
+         */
+        synchronized boolean sleep(long millis) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            while (!mCancelled) {
+                long remainingMillis =
+                        TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    return true;
+                }
+                try {
+                    wait(remainingMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final String mBaseUrl;
+
+    private final int mMaxResults;
+
+    private final Transport mTransport;
+
+    private final TokenBucket mTokenBucket;
+
+    private final CircuitBreaker mCircuitBreaker =
+            new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS);
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Cancellations of the requests in flight, cancelled by {@link #cancel()}.
+     */
+    private final Set<Cancellation> mInFlight = Collections.newSetFromMap(
+            new ConcurrentHashMap<Cancellation, Boolean>());
+
+    private volatile boolean mCancelled;
+
+    private final AtomicInteger mSubmitted = new AtomicInteger();
+    private final AtomicInteger mCompleted = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+    private final AtomicInteger mAttempts = new AtomicInteger();
+
+    /**
+     * Time the first batch was submitted, from {@link System#nanoTime()}, or 0.
+     */
+    private volatile long mStartNanos;
+
+    /**
+     * Constructs a new {@link BulkQueryExecutor} sending its requests over HTTP, see
+     * {@link QueryUtils#newBulkTransport()}.
+     *
+     * @param baseUrl          is the volume search endpoint, usually
+     *                         {@link #GOOGLE_BOOKS_REQUEST_URL}.
+     * @param maxResults       is the number of books requested per query.
+     * @param maxConcurrency   is the number of requests in flight at most.
+     * @param queriesPerSecond is the rate requests are sent at, at most.
+     * @param burst            is the number of requests that can be sent at once before
+     *                         the rate applies.
+     */
+    public BulkQueryExecutor(String baseUrl, int maxResults, int maxConcurrency,
+                             double queriesPerSecond, int burst) {
+        this(baseUrl, maxResults, maxConcurrency, queriesPerSecond, burst,
+                QueryUtils.newBulkTransport());
+    }
+
+    /**
+     * Constructs a new {@link BulkQueryExecutor} sending its requests with the transport.
+     */
+    public BulkQueryExecutor(String baseUrl, int maxResults, int maxConcurrency,
+                             double queriesPerSecond, int burst, Transport transport) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency < 1");
+        }
+        mBaseUrl = baseUrl;
+        mMaxResults = maxResults;
+        mTransport = transport;
+        mTokenBucket = new TokenBucket(queriesPerSecond, burst);
+        mExecutor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "BulkQueryExecutor #" + mCount.getAndIncrement());
+                        // Android runs this priority at the background nice value.
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues every query of the batch and returns right away. The results are handed to
+     * the callback in the order the queries complete.
+     */
+    public void execute(List<String> queries, final Callback callback) {
+        if (mStartNanos == 0) {
+            mStartNanos = System.nanoTime();
+        }
+        final AtomicInteger remaining = new AtomicInteger(queries.size());
+        if (queries.isEmpty()) {
+            callback.onFinished();
+            return;
+        }
+        mSubmitted.addAndGet(queries.size());
+        for (final String query : queries) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runQuery(query, callback);
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            callback.onFinished();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Fetches the query and reports the result, unless it was cancelled.
+     */
+    private void runQuery(String query, Callback callback) {
+        if (mCancelled) {
+            return;
+        }
+        Cancellation cancellation = new Cancellation();
+        mInFlight.add(cancellation);
+        if (mCancelled) {
+            // Cancelled after the check, but maybe before it was added.
+            cancellation.cancel();
+        }
+        List<Book> books;
+        try {
+            books = fetchWithRetries(buildUrl(query), cancellation);
+        } finally {
+            mInFlight.remove(cancellation);
+        }
+        if (cancellation.isCancelled()) {
+            return;
+        }
+
+        if (books == null) {
+            mFailed.incrementAndGet();
+        }
+        mCompleted.incrementAndGet();
+        callback.onResult(query, books);
+    }
+
+    /**
+     * Fetches the URL like {@link QueryUtils} does, retrying network errors, 429 and 5xx
+     * responses after a backoff, with each attempt waiting for a token first. Returns null
+     * once every attempt failed, the circuit is open or the request was cancelled.
+     */
+    private List<Book> fetchWithRetries(String requestUrl, Cancellation cancellation) {
+        if (!mCircuitBreaker.allowRequest()) {
+            return null;
+        }
+        int maxAttempts = FetchPolicy.getMaxAttempts();
+        for (int attempt = 1; ; attempt++) {
+            long waitNanos = mTokenBucket.reserve();
+            if (!cancellation.sleep(TimeUnit.NANOSECONDS.toMillis(waitNanos))) {
+                mCircuitBreaker.onCancel();
+                return null;
+            }
+
+            IOException failure;
+            try {
+                mAttempts.incrementAndGet();
+                List<Book> books = mTransport.fetch(requestUrl, cancellation);
+                mCircuitBreaker.onSuccess();
+                return books;
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            if (cancellation.isCancelled()) {
+                mCircuitBreaker.onCancel();
+                return null;
+            }
+            // Other error codes mean the API is up, and would fail again.
+            if (!FetchPolicy.isRetryable(failure)) {
+                mCircuitBreaker.onSuccess();
+                return null;
+            }
+            if (attempt >= maxAttempts) {
+                mCircuitBreaker.onFailure();
+                return null;
+            }
+            if (!cancellation.sleep(FetchPolicy.getBackoffMillis(attempt, failure))) {
+                mCircuitBreaker.onCancel();
+                return null;
+            }
+            if (mCircuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns the URL of the volume search for the query.
+     */
+    private String buildUrl(String query) {
+        try {
+            return mBaseUrl + "?q=" + URLEncoder.encode(query, "UTF-8")
+                    + "&maxResults=" + mMaxResults
+                    + "&fields=" + URLEncoder.encode(BookJsonParser.FIELDS, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported.
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Cancels the requests in flight and drops the queued ones, for good: batches executed
+     * afterwards are dropped too. Cancelled queries are not reported, but every batch
+     * still gets its {@link Callback#onFinished()}.
+     */
+    public void cancel() {
+        mCancelled = true;
+        for (Cancellation cancellation : mInFlight) {
+            cancellation.cancel();
+        }
+    }
+
+    /**
+     * Stops the worker threads once the queued queries are done. No batch can be
+     * executed afterwards.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Returns the number of queries submitted so far.
+     */
+    public int getSubmittedCount() {
+        return mSubmitted.get();
+    }
+
+    /**
+     * Returns the number of queries that completed, including the failed ones.
+     */
+    public int getCompletedCount() {
+        return mCompleted.get();
+    }
+
+    /**
+     * Returns the number of queries whose request failed.
+     */
+    public int getFailedCount() {
+        return mFailed.get();
+    }
+
+    /**
+     * Returns the number of requests sent, retries included, each of which took a token.
+     */
+    public int getAttemptCount() {
+        return mAttempts.get();
+    }
+
+    /**
+     * Returns the number of queries that are neither completed nor cancelled.
+     */
+    public int getPendingCount() {
+        return mCancelled ? 0 : mSubmitted.get() - mCompleted.get();
+    }
+
+    /**
+     * Returns the number of queries completed per second since the first batch was
+     * submitted.
+     */
+    public double getThroughput() {
+        long startNanos = mStartNanos;
+        if (startNanos == 0) {
+            return 0;
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        return elapsedNanos <= 0 ? 0 : mCompleted.get() * 1e9 / elapsedNanos;
+    }
+}
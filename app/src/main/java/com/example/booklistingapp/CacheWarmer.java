@@ -0,0 +1,231 @@
+package com.example.booklistingapp;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the first page of the most frequent recent queries, and their thumbnails, ahead
+ * of time into the {@link WarmCache} and the thumbnail disk cache, so those searches are
+ * answered without waiting for the network.
+ * <p>
+ * Warming only runs while the device is charging on an unmetered network. It is scheduled
+ * with {@link JobScheduler} from API 21, and with an inexact alarm that starts
+ * {@link CacheWarmingService} before that. Each run stops once it has read
+ * {@link #MAX_BYTES} or run for {@link #MAX_MILLIS}.
+ */
+public final class CacheWarmer {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = CacheWarmer.class.getName();
+
+    /**
+     * Id of the warming job, unique within the app.
+     */
+    private static final int JOB_ID = 1;
+
+    /**
+     * Time between two runs, in milliseconds.
+     */
+    static final long INTERVAL_MILLIS = AlarmManager.INTERVAL_HALF_DAY;
+
+    /**
+     * Number of queries warmed per run.
+     */
+    private static final int MAX_QUERIES = 5;
+
+    /**
+     * Number of bytes a run may read, results and thumbnails together.
+     */
+    private static final long MAX_BYTES = 2 * 1024 * 1024;
+
+    /**
+     * Time a run may take, in milliseconds.
+     */
+    private static final long MAX_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private CacheWarmer() {
+
+    }
+
+    /**
+     * Schedules the periodic warming, unless it already is.
+     */
+    public static void schedule(Context context) {
+        Context appContext = context.getApplicationContext();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJob(appContext);
+        } else {
+            scheduleAlarm(appContext);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context) {
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, CacheWarmingJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MILLIS)
+                .build();
+        if (jobScheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(LOG_TAG, "Problem scheduling the cache warming job");
+        }
+    }
+
+    /**
+     * Schedules an inexact repeating alarm. Alarms don't survive a reboot, the next launch
+     * schedules it again. The service checks the conditions itself when it runs.
+     */
+    private static void scheduleAlarm(Context context) {
+        Intent intent = new Intent(context, CacheWarmingService.class);
+        if (PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_NO_CREATE) != null) {
+            return;
+        }
+        PendingIntent operation = PendingIntent.getService(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + INTERVAL_MILLIS, INTERVAL_MILLIS, operation);
+    }
+
+    /**
+     * Returns true if the device is charging and on an unmetered network, the conditions
+     * the job is scheduled with.
+     */
+    static boolean canWarmNow(Context context) {
+        Intent battery = context.getApplicationContext().registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+            return false;
+        }
+        ConnectivityManager connMgr = (ConnectivityManager)
+                context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected()
+                && !connMgr.isActiveNetworkMetered();
+    }
+
+    /**
+     * Fetches the first page of the most frequent recent queries and their thumbnails,
+     * through the same fetch path as a search, until the budget of the run is spent.
+     * This runs on the calling thread.
+     *
+     * @param signal stops the run when cancelled.
+     */
+    public static void warm(Context context, CancellationSignal signal) {
+        WarmCache.init(context);
+        // The profile a search on this network would use, so its URLs are the same.
+        FetchProfile.Profile profile = FetchProfile.select(context);
+        boolean liteProjection = context.getResources().getBoolean(R.bool.lite_projection);
+
+        long startMillis = SystemClock.elapsedRealtime();
+        long deadline = startMillis + MAX_MILLIS;
+        // Fetches made by a search at the same time are counted too, which only ends the
+        // run earlier.
+        long wireBytesAtStart = FetchMetrics.getBytesOnWire();
+        long thumbnailBytes = 0;
+        int queries = 0;
+        int thumbnails = 0;
+
+        for (String query : RecentQueries.getFrequent(context, MAX_QUERIES)) {
+            if (isOverBudget(signal, deadline,
+                    FetchMetrics.getBytesOnWire() - wireBytesAtStart + thumbnailBytes)) {
+                break;
+            }
+            String url = BookActivity.buildPageUrl(query, 0, profile, liteProjection);
+            List<Book> books = fetchBookData(url, signal);
+            if (books == null) {
+                continue;
+            }
+            try {
+                WarmCache.put(url, books);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem caching the results of " + query, e);
+                continue;
+            }
+            BookIndex.getInstance(context).addAsync(books);
+            queries++;
+
+            for (Book book : books) {
+                if (isOverBudget(signal, deadline,
+                        FetchMetrics.getBytesOnWire() - wireBytesAtStart + thumbnailBytes)) {
+                    break;
+                }
+                long bytes = ThumbnailLoader.warmDiskCache(context, book.getImageUrl());
+                if (bytes > 0) {
+                    thumbnailBytes += bytes;
+                    thumbnails++;
+                }
+            }
+        }
+        WarmCache.trim();
+
+        Log.i(LOG_TAG, "Warmed " + queries + " queries and " + thumbnails + " thumbnails, "
+                + (FetchMetrics.getBytesOnWire() - wireBytesAtStart + thumbnailBytes)
+                + " bytes in " + (SystemClock.elapsedRealtime() - startMillis) + " ms");
+    }
+
+    /**
+     * Fetches the results on the network pool of the {@link LoadingEngine} as background
+     * work, so a search the user starts meanwhile takes the next free thread.
+     *
+     * @return the books, or null if the fetch failed or was cancelled.
+     */
+    private static List<Book> fetchBookData(final String url, final CancellationSignal signal) {
+        LoadingEngine.Task<List<Book>> task = LoadingEngine.execute(LoadingEngine.Pool.NETWORK,
+                new LoadingEngine.Task<>(LoadingEngine.Priority.BACKGROUND, signal,
+                        new Callable<List<Book>>() {
+                            @Override
+                            public List<Book> call() {
+                                return QueryUtils.fetchBookData(url, signal);
+                            }
+                        }));
+        try {
+            return task.get();
+        } catch (CancellationException e) {
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem warming " + url, e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            signal.cancel();
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private static boolean isOverBudget(CancellationSignal signal, long deadline, long bytes) {
+        return signal.isCanceled() || SystemClock.elapsedRealtime() >= deadline
+                || bytes >= MAX_BYTES;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.booklistingapp;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.os.CancellationSignal;
+
+/**
+ * Runs the {@link CacheWarmer} on a background thread when the system starts its job.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class CacheWarmingJobService extends JobService {
+
+    /**
+     * Signal that stops the run in progress, only set while the job runs.
+     */
+    private CancellationSignal mCancellationSignal;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final CancellationSignal signal = new CancellationSignal();
+        synchronized (this) {
+            mCancellationSignal = signal;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CacheWarmer.warm(CacheWarmingJobService.this, signal);
+                synchronized (CacheWarmingJobService.this) {
+                    if (mCancellationSignal == signal) {
+                        mCancellationSignal = null;
+                    }
+                }
+                jobFinished(params, false);
+            }
+        }, "CacheWarmer").start();
+        return true;
+    }
+
+    /**
+     * Stops the run when the device is no longer charging or left the unmetered network.
+     * The job is periodic, so it simply runs again next time.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.booklistingapp;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+/**
+ * Runs the {@link CacheWarmer} when its alarm fires, before API 21 where there is no
+ * JobScheduler. Alarms can't wait for conditions, so the run is skipped unless the device
+ * is charging on an unmetered network.
+ */
+public class CacheWarmingService extends IntentService {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = CacheWarmingService.class.getName();
+
+    public CacheWarmingService() {
+        super("CacheWarmingService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (!CacheWarmer.canWarmNow(this)) {
+            Log.i(LOG_TAG, "Not charging on an unmetered network, skipping the cache warming");
+            return;
+        }
+        CacheWarmer.warm(this, new CancellationSignal());
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.booklistingapp;
+
+/**
+ * Circuit breaker that fails requests fast while the server is down.
+ * <p>
+ * The circuit opens after a number of consecutive failures, and requests are refused
+ * without reaching the network until the open period has passed. A single trial request
+ * is then let through: its success closes the circuit again, and its failure opens it for
+ * another period.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of the circuit.
+     */
+    public enum State {
+        /** Requests go through. */
+        CLOSED,
+        /** Requests are refused. */
+        OPEN,
+        /** A single trial request is in flight. */
+        HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+
+    private final long mOpenMillis;
+
+    private State mState = State.CLOSED;
+
+    private int mConsecutiveFailures;
+
+    /**
+     * Time the circuit was opened, from {@link System#nanoTime()}.
+     */
+    private long mOpenedAtNanos;
+
+    /**
+     * Number of requests refused while the circuit was open.
+     */
+    private long mRejectedCount;
+
+    /**
+     * Constructs a new {@link CircuitBreaker}.
+     *
+     * @param failureThreshold is the number of consecutive failures that open the circuit.
+     * @param openMillis       is the time the circuit stays open, in milliseconds.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold < 1");
+        }
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * Returns true if a request may be sent. Every request allowed must be followed by a
+     * call to {@link #onSuccess()} or {@link #onFailure()}.
+     */
+    public synchronized boolean allowRequest() {
+        if (mState == State.OPEN
+                && (System.nanoTime() - mOpenedAtNanos) / 1000000L >= mOpenMillis) {
+            // Let a single trial request find out whether the server is back.
+            mState = State.HALF_OPEN;
+            return true;
+        }
+        if (mState == State.CLOSED) {
+            return true;
+        }
+        mRejectedCount++;
+        return false;
+    }
+
+    /**
+     * Records a request that reached the server and got an answer.
+     */
+    public synchronized void onSuccess() {
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+    }
+
+    /**
+     * Records a request that failed because of the server or the network.
+     *
+     * @return true if the failure opened the circuit.
+     */
+    public synchronized boolean onFailure() {
+        mConsecutiveFailures++;
+        if (mState == State.HALF_OPEN || mConsecutiveFailures >= mFailureThreshold) {
+            boolean opened = mState != State.OPEN;
+            mState = State.OPEN;
+            mOpenedAtNanos = System.nanoTime();
+            return opened;
+        }
+        return false;
+    }
+
+    /**
+     * Records a request that was cancelled before its outcome was known. A cancelled
+     * trial request lets the next request be the trial.
+     */
+    public synchronized void onCancel() {
+        if (mState == State.HALF_OPEN) {
+            mState = State.OPEN;
+            mOpenedAtNanos = System.nanoTime() - mOpenMillis * 1000000L;
+        }
+    }
+
+    /**
+     * Closes the circuit and forgets the failures and refusals recorded so far.
+     */
+    public synchronized void reset() {
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+        mRejectedCount = 0;
+    }
+
+    /**
+     * Returns the state of the circuit.
+     */
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * Returns the number of requests refused while the circuit was open.
+     */
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+}
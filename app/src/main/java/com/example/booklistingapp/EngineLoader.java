@@ -0,0 +1,196 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.content.Loader;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * A {@link Loader} whose work runs on the {@link LoadingEngine} instead of the
+ * AsyncTask executor.
+ * <p>
+ * Subclasses start their work in {@link #startLoad} and hand the result back with
+ * {@link #publish}. The result is delivered on the main thread while the loader is
+ * started, and kept for the next start otherwise. Cancelling the load cancels its
+ * {@link CancellationSignal}, which aborts the requests in flight, and the result of a
+ * cancelled load is dropped.
+ * <p>
+ * A load may also hand back partial results with {@link #publishPartial} while it runs.
+ * They are delivered at most once per frame, only the latest one when several arrive
+ * within a frame, and {@link #isPartial()} tells them from the final result.
+ */
+public abstract class EngineLoader<D> extends Loader<D> {
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Signal of the load in flight, only used on the main thread.
+     */
+    private CancellationSignal mSignal;
+
+    /**
+     * Result of the last load, kept to be delivered again when the loader is started.
+     */
+    private D mResult;
+
+    private boolean mHasResult;
+
+    /**
+     * Latest partial result not delivered yet, only used on the main thread.
+     */
+    private D mPendingPartial;
+
+    private boolean mFrameScheduled;
+
+    private boolean mDeliveringPartial;
+
+    /**
+     * Delivers the pending partial result on the next frame.
+     */
+    private final Choreographer.FrameCallback mPartialFrameCallback =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mFrameScheduled = false;
+                    D partial = mPendingPartial;
+                    mPendingPartial = null;
+                    if (partial == null || mSignal == null || !isStarted()) {
+                        return;
+                    }
+                    mDeliveringPartial = true;
+                    try {
+                        deliverResult(partial);
+                    } finally {
+                        mDeliveringPartial = false;
+                    }
+                }
+            };
+
+    /**
+     * Constructs a new {@link EngineLoader}.
+     *
+     * @param context of the activity
+     */
+    public EngineLoader(Context context) {
+        super(context);
+    }
+
+    /**
+     * Starts the work of a load, which must not block the calling (main) thread. The
+     * result is handed back with {@link #publish} from any thread.
+     *
+     * @param signal is cancelled when the load is.
+     */
+    protected abstract void startLoad(CancellationSignal signal);
+
+    /**
+     * Hands the result of the load started with the given signal to the main thread. The
+     * result of a load that has been cancelled or superseded is dropped.
+     */
+    protected final void publish(final CancellationSignal signal, final D result) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (signal != mSignal || signal.isCanceled()) {
+                    return;
+                }
+                mSignal = null;
+                mPendingPartial = null;
+                mResult = result;
+                mHasResult = true;
+                if (isStarted()) {
+                    deliverResult(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Hands a partial result of the load started with the given signal to the main
+     * thread, to be delivered on the next frame. It is dropped if the load has been
+     * cancelled, superseded or has completed by then.
+     */
+    protected final void publishPartial(final CancellationSignal signal, final D partial) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (signal != mSignal || signal.isCanceled()) {
+                    return;
+                }
+                mPendingPartial = partial;
+                if (!mFrameScheduled) {
+                    mFrameScheduled = true;
+                    Choreographer.getInstance().postFrameCallback(mPartialFrameCallback);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns true while a load is in flight, until its result is published or it is
+     * cancelled.
+     */
+    public boolean isLoading() {
+        return mSignal != null;
+    }
+
+    /**
+     * Returns true while a partial result is being delivered, so the receiver of a result
+     * can tell it from the final one.
+     */
+    public boolean isPartial() {
+        return mDeliveringPartial;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mHasResult) {
+            deliverResult(mResult);
+        }
+        if ((!mHasResult || takeContentChanged()) && mSignal == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onForceLoad() {
+        if (mSignal != null) {
+            mSignal.cancel();
+        }
+        mSignal = new CancellationSignal();
+        mPendingPartial = null;
+        startLoad(mSignal);
+    }
+
+    @Override
+    protected boolean onCancelLoad() {
+        if (mSignal == null) {
+            return false;
+        }
+        mSignal.cancel();
+        mSignal = null;
+        mPendingPartial = null;
+        // Like AsyncTaskLoader, report the cancellation asynchronously, once the loader
+        // manager is ready to start the loader that replaces this one.
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliverCancellation();
+            }
+        });
+        return true;
+    }
+
+    @Override
+    protected void onReset() {
+        if (mSignal != null) {
+            mSignal.cancel();
+            mSignal = null;
+        }
+        mPendingPartial = null;
+        mResult = null;
+        mHasResult = false;
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.booklistingapp;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency timers and counters for each stage of the book fetching pipeline.
+ * <p>
+ * Stages are timed with {@link System#nanoTime()} and kept in rolling
+ * {@link LatencyHistogram}s, so p50/p95/p99 describe recent requests. The summary
+ * can be dumped to logcat or to a file on demand, and debug builds dump it to both
+ * whenever {@link BookActivity} stops, next to the report of the {@link JankMonitor}.
+ */
+public final class FetchMetrics {
+
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = FetchMetrics.class.getName();
+
+    /**
+     * Name of the summary file written by the debug builds of {@link BookActivity}.
+     */
+    public static final String SUMMARY_FILE_NAME = "fetch-summary.txt";
+
+    /**
+     * Number of recent samples each stage keeps for its percentiles.
+     */
+    private static final int WINDOW_SIZE = 256;
+
+    /**
+     * The timed stages of a fetch.
+     */
+    public enum Stage {
+        /** Building the {@link java.net.URL} from the request string. */
+        CREATE_URL,
+        /** Opening the connection to the server. */
+        CONNECT,
+        /** Waiting for the response code after the request has been sent. */
+        RESPONSE_CODE,
+        /** Reading the body and parsing it into books. */
+        READ_AND_PARSE,
+        /** A single attempt of a fetch, hedged or not. */
+        ATTEMPT,
+        /** The whole fetch, from request string to list of books. */
+        TOTAL,
+        /** From the start of a load to the delivery of its first books, partial or not. */
+        FIRST_RESULT,
+        /** From the start of a load to the delivery of its complete result. */
+        COMPLETE_RESULT
+    }
+
+    private static final Map<Stage, LatencyHistogram> sHistograms = new EnumMap<>(Stage.class);
+
+    static {
+        for (Stage stage : Stage.values()) {
+            sHistograms.put(stage, new LatencyHistogram(WINDOW_SIZE));
+        }
+    }
+
+    /**
+     * Total number of fetches started.
+     */
+    private static final AtomicLong sRequests = new AtomicLong();
+
+    /**
+     * Total number of fetches that did not produce a list of books.
+     */
+    private static final AtomicLong sFailures = new AtomicLong();
+
+    /**
+     * Total number of fetches answered with 304 Not Modified.
+     */
+    private static final AtomicLong sNotModified = new AtomicLong();
+
+    /**
+     * Total number of attempts that were retries of a failed one.
+     */
+    private static final AtomicLong sRetries = new AtomicLong();
+
+    /**
+     * Total number of hedged duplicate requests sent.
+     */
+    private static final AtomicLong sHedges = new AtomicLong();
+
+    /**
+     * Total number of response bodies read.
+     */
+    private static final AtomicLong sResponses = new AtomicLong();
+
+    /**
+     * Total number of response body bytes read from the network, compressed or not.
+     */
+    private static final AtomicLong sBytesOnWire = new AtomicLong();
+
+    /**
+     * Total number of response body bytes after decompression, the bytes parsed.
+     */
+    private static final AtomicLong sBytesDecoded = new AtomicLong();
+
+    /**
+     * Total number of books parsed.
+     */
+    private static final AtomicLong sItemsParsed = new AtomicLong();
+
+    private FetchMetrics() {
+
+    }
+
+    /**
+     * Returns the start time of a stage, to be passed to {@link #record(Stage, long)}.
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since the given start time for the stage.
+     */
+    public static void record(Stage stage, long startNanos) {
+        sHistograms.get(stage).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the histogram of the given stage.
+     */
+    public static LatencyHistogram getHistogram(Stage stage) {
+        return sHistograms.get(stage);
+    }
+
+    /**
+     * Counts a fetch that has been started.
+     */
+    public static void incrementRequests() {
+        sRequests.incrementAndGet();
+    }
+
+    /**
+     * Counts a fetch that did not produce a list of books.
+     */
+    public static void incrementFailures() {
+        sFailures.incrementAndGet();
+    }
+
+    /**
+     * Counts a fetch that was answered with 304 Not Modified.
+     */
+    public static void incrementNotModified() {
+        sNotModified.incrementAndGet();
+    }
+
+    /**
+     * Counts an attempt that retries a failed one.
+     */
+    public static void incrementRetries() {
+        sRetries.incrementAndGet();
+    }
+
+    /**
+     * Counts a hedged duplicate request.
+     */
+    public static void incrementHedges() {
+        sHedges.incrementAndGet();
+    }
+
+    /**
+     * Records the size of a response body, on the wire and decoded.
+     */
+    public static void recordPayload(long bytesOnWire, long bytesDecoded) {
+        sResponses.incrementAndGet();
+        sBytesOnWire.addAndGet(bytesOnWire);
+        sBytesDecoded.addAndGet(bytesDecoded);
+    }
+
+    /**
+     * Returns the total number of response body bytes read from the network.
+     */
+    public static long getBytesOnWire() {
+        return sBytesOnWire.get();
+    }
+
+    /**
+     * Adds the number of books parsed by a fetch.
+     */
+    public static void addItemsParsed(long items) {
+        sItemsParsed.addAndGet(items);
+    }
+
+    /**
+     * Writes a human readable summary of every counter and stage to the writer.
+     */
+    public static void dump(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("requests=" + sRequests.get() + " failures=" + sFailures.get()
+                + " notModified=" + sNotModified.get()
+                + " coalesced=" + RequestCoalescer.getSavedCount()
+                + " retries=" + sRetries.get() + " hedges=" + sHedges.get()
+                + " circuitRejected=" + FetchPolicy.getCircuitBreaker().getRejectedCount()
+                + " itemsParsed=" + sItemsParsed.get());
+        long warmHits = WarmCache.getHitCount();
+        long warmLookups = warmHits + WarmCache.getMissCount();
+        out.println("warmHits=" + warmHits + " warmMisses=" + WarmCache.getMissCount()
+                + " warmHitRate=" + (warmLookups == 0 ? 0 : 100 * warmHits / warmLookups) + "%");
+        long responses = sResponses.get();
+        out.println("responses=" + responses
+                + " bytesOnWire=" + sBytesOnWire.get()
+                + " bytesDecoded=" + sBytesDecoded.get()
+                + " avgOnWire=" + (responses == 0 ? 0 : sBytesOnWire.get() / responses)
+                + " avgDecoded=" + (responses == 0 ? 0 : sBytesDecoded.get() / responses));
+        for (Stage stage : Stage.values()) {
+            printHistogram(out, stage.toString(), sHistograms.get(stage));
+        }
+        out.println("networkQueued=" + LoadingEngine.getQueueDepth(LoadingEngine.Pool.NETWORK)
+                + " networkActive=" + LoadingEngine.getActiveCount(LoadingEngine.Pool.NETWORK)
+                + " fetchQueued=" + LoadingEngine.getQueueDepth(LoadingEngine.Pool.FETCH)
+                + " fetchActive=" + LoadingEngine.getActiveCount(LoadingEngine.Pool.FETCH)
+                + " cpuQueued=" + LoadingEngine.getQueueDepth(LoadingEngine.Pool.CPU)
+                + " cpuActive=" + LoadingEngine.getActiveCount(LoadingEngine.Pool.CPU));
+        for (LoadingEngine.Priority priority : LoadingEngine.Priority.values()) {
+            printHistogram(out, "WAIT_" + priority, LoadingEngine.getWaitHistogram(priority));
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the summary to logcat.
+     */
+    public static void dumpToLog() {
+        StringWriter writer = new StringWriter();
+        dump(writer);
+        Log.i(LOG_TAG, writer.toString());
+    }
+
+    /**
+     * Writes the summary to the given file, replacing its content.
+     */
+    public static void dumpToFile(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                Charset.forName("UTF-8"));
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void printHistogram(PrintWriter out, String name,
+                                       LatencyHistogram histogram) {
+        out.println(name
+                + " count=" + histogram.getCount()
+                + " mean=" + toMillis(histogram.getMeanNanos())
+                + " p50=" + toMillis(histogram.getPercentileNanos(50))
+                + " p95=" + toMillis(histogram.getPercentileNanos(95))
+                + " p99=" + toMillis(histogram.getPercentileNanos(99))
+                + " max=" + toMillis(histogram.getMaxNanos()) + " (ms)");
+    }
+
+    /**
+     * Formats nanoseconds as milliseconds with a fractional part.
+     */
+    private static String toMillis(long nanos) {
+        return String.valueOf(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.booklistingapp;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tail latency settings of the fetch path: timeouts that adapt to the observed latency,
+ * retries with capped exponential backoff and jitter, hedged requests and the
+ * {@link CircuitBreaker} shared by every fetch.
+ * <p>
+ * Adaptive values are derived from the recent samples kept by {@link FetchMetrics}, and
+ * fall back to fixed defaults until enough requests have been made.
+ */
+public final class FetchPolicy {
+
+    /**
+     * Number of samples a stage needs before its percentiles are trusted.
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    /**
+     * A timeout is this many times the p99 latency of its stage.
+     */
+    private static final int TIMEOUT_MULTIPLIER = 3;
+
+    /**
+     * Bounds of the connect timeout. The upper bound is used until enough samples are
+     * known.
+     */
+    private static final int MIN_CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int MAX_CONNECT_TIMEOUT_MILLIS = 15000;
+
+    /**
+     * Bounds of the read timeout. The upper bound is used until enough samples are known.
+     */
+    private static final int MIN_READ_TIMEOUT_MILLIS = 3000;
+    private static final int MAX_READ_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Base and cap of the retry backoff, in milliseconds.
+     */
+    private static final long BASE_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    /**
+     * Shortest delay before a hedged request is sent, in milliseconds.
+     */
+    private static final long MIN_HEDGE_DELAY_MILLIS = 50;
+
+    /**
+     * Consecutive failures that open the circuit, and the time it then stays open.
+     */
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = 30000;
+
+    private static final CircuitBreaker sCircuitBreaker =
+            new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS);
+
+    private static final Random sRandom = new Random();
+
+    /**
+     * Number of attempts made for a fetch, including the first one.
+     */
+    private static volatile int sMaxAttempts = 3;
+
+    /**
+     * True to send a hedged duplicate of requests slower than the p95 latency.
+     */
+    private static volatile boolean sHedgingEnabled;
+
+    private FetchPolicy() {
+
+    }
+
+    /**
+     * Returns the circuit breaker shared by every fetch.
+     */
+    public static CircuitBreaker getCircuitBreaker() {
+        return sCircuitBreaker;
+    }
+
+    /**
+     * Sets the number of attempts made for a fetch, including the first one.
+     */
+    public static void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts < 1");
+        }
+        sMaxAttempts = maxAttempts;
+    }
+
+    /**
+     * Returns the number of attempts made for a fetch, including the first one.
+     */
+    public static int getMaxAttempts() {
+        return sMaxAttempts;
+    }
+
+    /**
+     * Enables or disables hedged requests. They are off by default since each one costs
+     * a request against the API quota; the app sets them from the "hedge_requests"
+     * resource, which debug builds turn on.
+     */
+    public static void setHedgingEnabled(boolean enabled) {
+        sHedgingEnabled = enabled;
+    }
+
+    /**
+     * Returns the connect timeout for the next request, in milliseconds.
+     */
+    public static int getConnectTimeoutMillis() {
+        return adaptiveTimeout(FetchMetrics.Stage.CONNECT,
+                MIN_CONNECT_TIMEOUT_MILLIS, MAX_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Returns the read timeout for the next request, in milliseconds. It is derived from
+     * the time to the response code, which is the longest the server stays silent.
+     */
+    public static int getReadTimeoutMillis() {
+        return adaptiveTimeout(FetchMetrics.Stage.RESPONSE_CODE,
+                MIN_READ_TIMEOUT_MILLIS, MAX_READ_TIMEOUT_MILLIS);
+    }
+
+    private static int adaptiveTimeout(FetchMetrics.Stage stage, int min, int max) {
+        LatencyHistogram histogram = FetchMetrics.getHistogram(stage);
+        if (histogram.getCount() < MIN_SAMPLES) {
+            return max;
+        }
+        long p99Millis = TimeUnit.NANOSECONDS.toMillis(histogram.getPercentileNanos(99));
+        return (int) Math.max(min, Math.min(max, p99Millis * TIMEOUT_MULTIPLIER));
+    }
+
+    /**
+     * Returns true if the failed request is worth retrying: network errors, 429 Too Many
+     * Requests and server errors. Other error codes would fail again.
+     */
+    public static boolean isRetryable(IOException e) {
+        if (e instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) e).getStatusCode();
+            return statusCode == 429 || statusCode >= 500;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the delay before the given retry, in milliseconds. The delay is drawn at
+     * random up to an exponentially growing cap ("full jitter"), so clients that failed
+     * together don't retry together. A delay asked for by the server is honored, up to
+     * the cap.
+     *
+     * @param retry     is the number of the retry, starting at 1.
+     * @param exception is the failure of the previous attempt.
+     */
+    public static long getBackoffMillis(int retry, IOException exception) {
+        if (exception instanceof HttpStatusException) {
+            long retryAfterMillis = ((HttpStatusException) exception).getRetryAfterMillis();
+            if (retryAfterMillis >= 0) {
+                return Math.min(retryAfterMillis, MAX_BACKOFF_MILLIS);
+            }
+        }
+        long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(retry - 1, 16));
+        synchronized (sRandom) {
+            return (long) (sRandom.nextDouble() * cap);
+        }
+    }
+
+    /**
+     * Returns the delay after which a hedged duplicate of a request is sent, the p95
+     * latency of an attempt, or -1 if hedging is disabled or the latency isn't known yet.
+     */
+    public static long getHedgeDelayMillis() {
+        if (!sHedgingEnabled) {
+            return -1;
+        }
+        LatencyHistogram histogram = FetchMetrics.getHistogram(FetchMetrics.Stage.ATTEMPT);
+        if (histogram.getCount() < MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.max(MIN_HEDGE_DELAY_MILLIS,
+                TimeUnit.NANOSECONDS.toMillis(histogram.getPercentileNanos(95)));
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks how much each request asks for from the quality of the network: the page size,
+ * whether descriptions are included and which thumbnail is used.
+ * <p>
+ * The round trip time and the bandwidth are estimated from the responses of recent
+ * requests, as moving averages. Until a few responses have been seen on the current
+ * network, the type of connection decides. Switching to another profile needs the
+ * estimates to be clearly past the threshold, so the profile doesn't flip back and forth
+ * on a network that sits close to one.
+ */
+public final class FetchProfile {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = FetchProfile.class.getName();
+
+    /**
+     * What a request asks for, from the lightest to the richest.
+     */
+    public enum Profile {
+        /** Small pages one at a time, without descriptions, for slow networks. */
+        LIGHT(10, 1, false, BookJsonParser.SMALL_THUMBNAIL),
+        /** Regular pages. */
+        STANDARD(20, 3, true, BookJsonParser.SMALL_THUMBNAIL),
+        /** The largest pages the API allows, with the larger thumbnails. */
+        RICH(40, 3, true, BookJsonParser.THUMBNAIL);
+
+        /**
+         * Number of books requested per page, sent as "maxResults".
+         */
+        public final int pageSize;
+
+        /**
+         * Number of consecutive pages fetched at the same time by each load.
+         */
+        public final int pagesPerLoad;
+
+        /**
+         * True to request the description of each book.
+         */
+        public final boolean includeDescriptions;
+
+        /**
+         * Key of the thumbnail read from "imageLinks".
+         */
+        public final String thumbnailKey;
+
+        Profile(int pageSize, int pagesPerLoad, boolean includeDescriptions,
+                String thumbnailKey) {
+            this.pageSize = pageSize;
+            this.pagesPerLoad = pagesPerLoad;
+            this.includeDescriptions = includeDescriptions;
+            this.thumbnailKey = thumbnailKey;
+        }
+
+        /**
+         * Returns the value of the "fields" parameter of the requests.
+         */
+        public String getFields() {
+            return BookJsonParser.buildFields(includeDescriptions, thumbnailKey);
+        }
+    }
+
+    /**
+     * Number of responses on a network before the estimates replace the connection type.
+     */
+    private static final int MIN_SAMPLES = 3;
+
+    /**
+     * Weight of a new response in the moving averages.
+     */
+    private static final double SAMPLE_WEIGHT = 0.25;
+
+    /**
+     * Smallest response body the bandwidth is estimated from, in bytes. Smaller bodies
+     * are read in a single round trip and say little about the bandwidth.
+     */
+    private static final long MIN_BANDWIDTH_SAMPLE_BYTES = 4 * 1024;
+
+    /**
+     * Beyond these the network is slow and the light profile is used.
+     */
+    private static final double SLOW_RTT_MILLIS = 800;
+    private static final double SLOW_BANDWIDTH_BYTES_PER_SECOND = 40 * 1024;
+
+    /**
+     * Within these the network is fast and the rich profile is used.
+     */
+    private static final double FAST_RTT_MILLIS = 200;
+    private static final double FAST_BANDWIDTH_BYTES_PER_SECOND = 400 * 1024;
+
+    /**
+     * How far past a threshold the estimates must be to switch to another profile.
+     */
+    private static final double HYSTERESIS = 1.25;
+
+    /**
+     * Type and subtype of the network the estimates are for.
+     */
+    private static String sNetworkKey;
+
+    private static int sSampleCount;
+
+    /**
+     * Moving averages of the time to the response code, and of the bandwidth of response
+     * bodies. Negative until there is a sample.
+     */
+    private static double sRttMillis = -1;
+    private static double sBandwidthBytesPerSecond = -1;
+
+    private static Profile sProfile = Profile.STANDARD;
+
+    private FetchProfile() {
+
+    }
+
+    /**
+     * Records the timings of a successful response.
+     *
+     * @param responseNanos is the time from sending the request to the response code.
+     * @param bodyBytes     is the size of the body read, on the wire.
+     * @param bodyNanos     is the time reading the body took.
+     */
+    public static synchronized void recordResponse(long responseNanos, long bodyBytes,
+                                                   long bodyNanos) {
+        double rttMillis = responseNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        sRttMillis = sRttMillis < 0 ? rttMillis
+                : sRttMillis + SAMPLE_WEIGHT * (rttMillis - sRttMillis);
+        if (bodyBytes >= MIN_BANDWIDTH_SAMPLE_BYTES && bodyNanos > 0) {
+            double bandwidth = bodyBytes * (double) TimeUnit.SECONDS.toNanos(1) / bodyNanos;
+            sBandwidthBytesPerSecond = sBandwidthBytesPerSecond < 0 ? bandwidth
+                    : sBandwidthBytesPerSecond + SAMPLE_WEIGHT
+                    * (bandwidth - sBandwidthBytesPerSecond);
+        }
+        sSampleCount++;
+    }
+
+    /**
+     * Returns the profile a query started now should use on the active network.
+     */
+    public static Profile select(Context context) {
+        ConnectivityManager connMgr = (ConnectivityManager)
+                context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        String networkKey = networkInfo == null ? "none"
+                : networkInfo.getType() + ":" + networkInfo.getSubtype();
+        return select(networkKey,
+                fromConnectionType(networkInfo, connMgr.isActiveNetworkMetered()));
+    }
+
+    /**
+     * Returns the profile a query started now should use on the network.
+     *
+     * @param networkKey       identifies the network, the estimates start over when it changes.
+     * @param byConnectionType is the profile suggested by the type of connection alone.
+     */
+    static synchronized Profile select(String networkKey, Profile byConnectionType) {
+        Profile profile;
+        if (!networkKey.equals(sNetworkKey)) {
+            // The estimates were made on another network, start over from its type.
+            sNetworkKey = networkKey;
+            sSampleCount = 0;
+            sRttMillis = -1;
+            sBandwidthBytesPerSecond = -1;
+            profile = byConnectionType;
+        } else if (sSampleCount < MIN_SAMPLES) {
+            profile = byConnectionType;
+        } else {
+            profile = fromEstimates(sProfile);
+        }
+
+        if (profile != sProfile) {
+            Log.i(LOG_TAG, "Switching the fetch profile from " + sProfile + " to " + profile
+                    + ", network=" + networkKey + " rtt=" + Math.round(sRttMillis)
+                    + " ms bandwidth=" + Math.round(sBandwidthBytesPerSecond) + " B/s");
+            sProfile = profile;
+        }
+        return profile;
+    }
+
+    /**
+     * Returns the profile suggested by the type of connection alone.
+     */
+    private static Profile fromConnectionType(NetworkInfo networkInfo, boolean metered) {
+        if (networkInfo == null) {
+            return Profile.STANDARD;
+        }
+        switch (networkInfo.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+            case ConnectivityManager.TYPE_ETHERNET:
+                // A metered Wi-Fi network is often a phone's hotspot.
+                return metered ? Profile.STANDARD : Profile.RICH;
+            case ConnectivityManager.TYPE_MOBILE:
+                switch (networkInfo.getSubtype()) {
+                    case TelephonyManager.NETWORK_TYPE_GPRS:
+                    case TelephonyManager.NETWORK_TYPE_EDGE:
+                    case TelephonyManager.NETWORK_TYPE_CDMA:
+                    case TelephonyManager.NETWORK_TYPE_1xRTT:
+                    case TelephonyManager.NETWORK_TYPE_IDEN:
+                        return Profile.LIGHT;
+                    default:
+                        return Profile.STANDARD;
+                }
+            default:
+                return Profile.STANDARD;
+        }
+    }
+
+    /**
+     * Returns the profile suggested by the estimates, keeping the current one unless the
+     * estimates are clearly past the threshold of another.
+     */
+    private static Profile fromEstimates(Profile current) {
+        Profile profile = classify(sRttMillis, sBandwidthBytesPerSecond);
+        if (profile.compareTo(current) > 0) {
+            // Only move up if the network would still qualify when a bit slower.
+            Profile strict = classify(sRttMillis * HYSTERESIS,
+                    sBandwidthBytesPerSecond / HYSTERESIS);
+            profile = strict.compareTo(current) > 0 ? strict : current;
+        } else if (profile.compareTo(current) < 0) {
+            // Only move down if the network would still qualify when a bit faster.
+            Profile lenient = classify(sRttMillis / HYSTERESIS,
+                    sBandwidthBytesPerSecond * HYSTERESIS);
+            profile = lenient.compareTo(current) < 0 ? lenient : current;
+        }
+        return profile;
+    }
+
+    /**
+     * Returns the profile for the round trip time and bandwidth. An unknown bandwidth
+     * (negative) is judged by the round trip time alone.
+     */
+    private static Profile classify(double rttMillis, double bandwidth) {
+        boolean bandwidthKnown = bandwidth >= 0;
+        if (rttMillis > SLOW_RTT_MILLIS
+                || (bandwidthKnown && bandwidth < SLOW_BANDWIDTH_BYTES_PER_SECOND)) {
+            return Profile.LIGHT;
+        }
+        if (rttMillis < FAST_RTT_MILLIS
+                && (!bandwidthKnown || bandwidth > FAST_BANDWIDTH_BYTES_PER_SECOND)) {
+            return Profile.RICH;
+        }
+        return Profile.STANDARD;
+    }
+
+    /**
+     * Returns the estimated time to a response code, in milliseconds, or -1 if unknown.
+     */
+    public static synchronized long getRttEstimateMillis() {
+        return Math.round(sRttMillis);
+    }
+
+    /**
+     * Returns the estimated bandwidth, in bytes per second, or -1 if unknown.
+     */
+    public static synchronized long getBandwidthEstimate() {
+        return Math.round(sBandwidthBytesPerSecond);
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.booklistingapp;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server answers a request with an error response code.
+ */
+public class HttpStatusException extends IOException {
+
+    /**
+     * Response code of the request.
+     */
+    private final int mStatusCode;
+
+    /**
+     * Delay the server asked for before retrying, in milliseconds, or -1.
+     */
+    private final long mRetryAfterMillis;
+
+    /**
+     * Constructs a new {@link HttpStatusException}.
+     *
+     * @param statusCode       is the response code of the request.
+     * @param retryAfterMillis is the delay from the "Retry-After" header, or -1.
+     */
+    public HttpStatusException(int statusCode, long retryAfterMillis) {
+        super("Error response code: " + statusCode);
+        mStatusCode = statusCode;
+        mRetryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Returns the response code of the request.
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * Returns the delay the server asked for before retrying, in milliseconds, or -1.
+     */
+    public long getRetryAfterMillis() {
+        return mRetryAfterMillis;
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.booklistingapp;
+
+import android.os.Build;
+import android.os.StrictMode;
+import android.os.Trace;
+import android.os.strictmode.Violation;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timers for the work done on the UI thread: binding list rows, delivering results to
+ * the list, and the interval between frames.
+ * <p>
+ * Timed sections also show up in systrace under their own name. Durations are kept in
+ * rolling {@link LatencyHistogram}s like {@link FetchMetrics}, and every event is also kept
+ * in a bounded trace, so a summary and a CSV trace can be written after a session or an
+ * instrumented test. Nothing is recorded unless the monitor is enabled, which it is by
+ * default only in debug builds.
+ */
+public final class JankMonitor {
+
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = JankMonitor.class.getName();
+
+    /**
+     * Number of recent samples each kind of event keeps for its percentiles.
+     */
+    private static final int WINDOW_SIZE = 512;
+
+    /**
+     * Number of events kept in the trace, the oldest ones are overwritten first.
+     */
+    private static final int TRACE_SIZE = 4096;
+
+    /**
+     * Time a frame has at 60 frames per second, in nanoseconds.
+     */
+    private static final long FRAME_BUDGET_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    /**
+     * Name of the summary file written by {@link #dumpToFiles(File)}.
+     */
+    public static final String SUMMARY_FILE_NAME = "jank-summary.txt";
+
+    /**
+     * Name of the trace file written by {@link #dumpToFiles(File)}.
+     */
+    public static final String TRACE_FILE_NAME = "jank-trace.csv";
+
+    /**
+     * The kinds of events recorded.
+     */
+    public enum Kind {
+        /** Binding a book to a row of the list. */
+        BIND,
+        /** Handing a page of results over to the list. */
+        DELIVERY,
+        /** The interval between two frames. */
+        FRAME
+    }
+
+    private static final Map<Kind, LatencyHistogram> sHistograms = new EnumMap<>(Kind.class);
+
+    static {
+        for (Kind kind : Kind.values()) {
+            sHistograms.put(kind, new LatencyHistogram(WINDOW_SIZE));
+        }
+    }
+
+    /**
+     * Kind, start and duration of the most recent events, see {@link #TRACE_SIZE}.
+     */
+    private static final int[] sTraceKinds = new int[TRACE_SIZE];
+    private static final long[] sTraceStarts = new long[TRACE_SIZE];
+    private static final long[] sTraceDurations = new long[TRACE_SIZE];
+    private static long sTraceCount;
+
+    /**
+     * Total number of frames that took longer than one and a half frame budget.
+     */
+    private static final AtomicLong sFramesOverBudget = new AtomicLong();
+
+    /**
+     * Total number of frames that were skipped by the slow ones.
+     */
+    private static final AtomicLong sFramesDropped = new AtomicLong();
+
+    /**
+     * Total number of StrictMode violations reported, only counted from API 28.
+     */
+    private static final AtomicLong sViolations = new AtomicLong();
+
+    private static volatile boolean sEnabled = BuildConfig.DEBUG;
+
+    /**
+     * Time of the previous frame, or 0 before the first frame is monitored.
+     */
+    private static long sLastFrameNanos;
+
+    private static boolean sFrameMonitoring;
+
+    /**
+     * Records the interval from the previous frame, and asks for the next one.
+     */
+    private static final Choreographer.FrameCallback sFrameCallback =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    if (sLastFrameNanos != 0) {
+                        recordFrame(sLastFrameNanos, frameTimeNanos - sLastFrameNanos);
+                    }
+                    sLastFrameNanos = frameTimeNanos;
+                    Choreographer.getInstance().postFrameCallback(this);
+                }
+            };
+
+    private JankMonitor() {
+
+    }
+
+    /**
+     * Turns recording on or off. Events already recorded are kept.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Starts a timed section on the current thread, to be ended with
+     * {@link #end(Kind, long)} on the same thread.
+     *
+     * @param section is the name shown in systrace.
+     * @return the start time to pass to {@link #end(Kind, long)}, or 0 when disabled.
+     */
+    public static long begin(String section) {
+        if (!sEnabled) {
+            return 0;
+        }
+        Trace.beginSection(section);
+        return System.nanoTime();
+    }
+
+    /**
+     * Ends the timed section started at the given time and records its duration.
+     */
+    public static void end(Kind kind, long startNanos) {
+        if (startNanos == 0) {
+            return;
+        }
+        long durationNanos = System.nanoTime() - startNanos;
+        Trace.endSection();
+        sHistograms.get(kind).record(durationNanos);
+        addToTrace(kind, startNanos, durationNanos);
+    }
+
+    /**
+     * Starts recording the interval between frames. This must be called on the UI thread.
+     */
+    public static void startFrameMonitoring() {
+        if (!sEnabled || sFrameMonitoring) {
+            return;
+        }
+        sFrameMonitoring = true;
+        sLastFrameNanos = 0;
+        Choreographer.getInstance().postFrameCallback(sFrameCallback);
+    }
+
+    /**
+     * Stops recording the interval between frames. This must be called on the UI thread.
+     */
+    public static void stopFrameMonitoring() {
+        if (!sFrameMonitoring) {
+            return;
+        }
+        sFrameMonitoring = false;
+        Choreographer.getInstance().removeFrameCallback(sFrameCallback);
+    }
+
+    /**
+     * Records a frame interval, and counts it and the frames it skipped when it took
+     * longer than one and a half frame budget.
+     */
+    private static void recordFrame(long startNanos, long intervalNanos) {
+        sHistograms.get(Kind.FRAME).record(intervalNanos);
+        addToTrace(Kind.FRAME, startNanos, intervalNanos);
+        if (intervalNanos * 2 > FRAME_BUDGET_NANOS * 3) {
+            sFramesOverBudget.incrementAndGet();
+            sFramesDropped.addAndGet(
+                    Math.round(intervalNanos / (double) FRAME_BUDGET_NANOS) - 1);
+        }
+    }
+
+    private static synchronized void addToTrace(Kind kind, long startNanos, long durationNanos) {
+        int index = (int) (sTraceCount % TRACE_SIZE);
+        sTraceKinds[index] = kind.ordinal();
+        sTraceStarts[index] = startNanos;
+        sTraceDurations[index] = durationNanos;
+        sTraceCount++;
+    }
+
+    /**
+     * Detects disk and network access on the UI thread and leaked resources, and logs them.
+     * From API 28 the violations are also counted in the summary.
+     */
+    public static void enableStrictMode() {
+        StrictMode.ThreadPolicy.Builder threadPolicy = new StrictMode.ThreadPolicy.Builder()
+                .detectAll()
+                .penaltyLog();
+        StrictMode.VmPolicy.Builder vmPolicy = new StrictMode.VmPolicy.Builder()
+                .detectAll()
+                .penaltyLog();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            Executor executor = Executors.newSingleThreadExecutor();
+            threadPolicy.penaltyListener(executor, new StrictMode.OnThreadViolationListener() {
+                @Override
+                public void onThreadViolation(Violation violation) {
+                    sViolations.incrementAndGet();
+                }
+            });
+            vmPolicy.penaltyListener(executor, new StrictMode.OnVmViolationListener() {
+                @Override
+                public void onVmViolation(Violation violation) {
+                    sViolations.incrementAndGet();
+                }
+            });
+        }
+        StrictMode.setThreadPolicy(threadPolicy.build());
+        StrictMode.setVmPolicy(vmPolicy.build());
+    }
+
+    /**
+     * Returns the histogram of the given kind of event.
+     */
+    public static LatencyHistogram getHistogram(Kind kind) {
+        return sHistograms.get(kind);
+    }
+
+    public static long getFramesOverBudgetCount() {
+        return sFramesOverBudget.get();
+    }
+
+    public static long getFramesDroppedCount() {
+        return sFramesDropped.get();
+    }
+
+    public static long getViolationCount() {
+        return sViolations.get();
+    }
+
+    /**
+     * Writes a human readable summary of every counter and kind of event to the writer.
+     */
+    public static void dump(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("frames=" + sHistograms.get(Kind.FRAME).getCount()
+                + " framesOverBudget=" + sFramesOverBudget.get()
+                + " framesDropped=" + sFramesDropped.get()
+                + " strictModeViolations=" + sViolations.get());
+        for (Kind kind : Kind.values()) {
+            LatencyHistogram histogram = sHistograms.get(kind);
+            out.println(kind
+                    + " count=" + histogram.getCount()
+                    + " mean=" + toMillis(histogram.getMeanNanos())
+                    + " p50=" + toMillis(histogram.getPercentileNanos(50))
+                    + " p95=" + toMillis(histogram.getPercentileNanos(95))
+                    + " p99=" + toMillis(histogram.getPercentileNanos(99))
+                    + " max=" + toMillis(histogram.getMaxNanos()) + " (ms)");
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the events of the trace, oldest first, as CSV with a header line. Times are
+     * in nanoseconds, starts from {@link System#nanoTime()}.
+     */
+    public static void writeTrace(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("kind,start_ns,duration_ns");
+        synchronized (JankMonitor.class) {
+            long first = Math.max(0, sTraceCount - TRACE_SIZE);
+            Kind[] kinds = Kind.values();
+            for (long i = first; i < sTraceCount; i++) {
+                int index = (int) (i % TRACE_SIZE);
+                out.println(kinds[sTraceKinds[index]] + "," + sTraceStarts[index] + ","
+                        + sTraceDurations[index]);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the summary to logcat.
+     */
+    public static void dumpToLog() {
+        StringWriter writer = new StringWriter();
+        dump(writer);
+        Log.i(LOG_TAG, writer.toString());
+    }
+
+    /**
+     * Writes the summary and the trace to {@link #SUMMARY_FILE_NAME} and
+     * {@link #TRACE_FILE_NAME} in the given directory, replacing their content.
+     */
+    public static void dumpToFiles(File directory) throws IOException {
+        Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(directory, SUMMARY_FILE_NAME)),
+                Charset.forName("UTF-8"));
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+        writer = new OutputStreamWriter(
+                new FileOutputStream(new File(directory, TRACE_FILE_NAME)),
+                Charset.forName("UTF-8"));
+        try {
+            writeTrace(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Formats nanoseconds as milliseconds with a fractional part.
+     */
+    private static String toMillis(long nanos) {
+        return String.valueOf(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.booklistingapp;
+
+import java.util.Arrays;
+
+/**
+ * An {@link LatencyHistogram} keeps the most recent latency samples of a single stage in a
+ * fixed size ring buffer, so percentiles always describe recent behaviour and the memory
+ * used never grows.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Most recent samples in nanoseconds, oldest ones are overwritten first.
+     */
+    private final long[] mSamples;
+
+    /**
+     * Total number of samples recorded since creation.
+     */
+    private long mCount;
+
+    /**
+     * Sum of every sample recorded since creation, in nanoseconds.
+     */
+    private long mTotalNanos;
+
+    /**
+     * Largest sample recorded since creation, in nanoseconds.
+     */
+    private long mMaxNanos;
+
+    /**
+     * Constructs a new {@link LatencyHistogram}.
+     *
+     * @param windowSize is the number of recent samples the percentiles are computed over.
+     */
+    public LatencyHistogram(int windowSize) {
+        mSamples = new long[windowSize];
+    }
+
+    /**
+     * Records a single sample.
+     */
+    public synchronized void record(long nanos) {
+        mSamples[(int) (mCount % mSamples.length)] = nanos;
+        mCount++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    /**
+     * Returns the total number of samples recorded.
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the mean of every sample recorded, in nanoseconds.
+     */
+    public synchronized long getMeanNanos() {
+        return mCount == 0 ? 0 : mTotalNanos / mCount;
+    }
+
+    /**
+     * Returns the largest sample recorded, in nanoseconds.
+     */
+    public synchronized long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * Returns the given percentile (0 - 100) of the samples in the window, in nanoseconds,
+     * or 0 when nothing has been recorded yet.
+     */
+    public synchronized long getPercentileNanos(double percentile) {
+        int size = (int) Math.min(mCount, mSamples.length);
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return sorted[Math.max(0, Math.min(index, size - 1))];
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.booklistingapp;
+
+import android.os.CancellationSignal;
+import android.os.Process;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the work of loading books on two bounded pools of background threads: one for
+ * network requests and one for CPU work such as merging pages and formatting rows.
+ * <p>
+ * Waiting tasks are taken by priority, so a search the user is waiting for runs before
+ * pages fetched ahead and before background work, and in submission order within a
+ * priority. A task whose {@link CancellationSignal} is cancelled while it waits never
+ * runs. The depth of each queue and the time tasks wait in it are recorded.
+ */
+public final class LoadingEngine {
+
+    /**
+     * Number of network requests run at the same time. Kept low to stay inside the
+     * Google Books API quotas.
+     */
+    private static final int NETWORK_THREADS = 4;
+
+    /**
+     * Number of CPU tasks run at the same time, leaving a core for the UI thread.
+     */
+    private static final int CPU_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    /**
+     * Time an idle thread is kept alive, in seconds.
+     */
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Number of recent samples each priority keeps for its wait time percentiles.
+     */
+    private static final int WINDOW_SIZE = 256;
+
+    /**
+     * The pools tasks run on.
+     */
+    public enum Pool {
+        /** Network requests, which mostly block on sockets. */
+        NETWORK,
+        /**
+         * Fetches shared by the callers of the {@link RequestCoalescer}, which wait for
+         * them from the network pool. Kept apart so a waiting task can't hold the thread
+         * its fetch needs.
+         */
+        FETCH,
+        /** Work that keeps a core busy. */
+        CPU
+    }
+
+    /**
+     * The priorities of tasks, highest first.
+     */
+    public enum Priority {
+        /** Work the user is waiting for. */
+        FOREGROUND,
+        /** Work the user will probably wait for soon, like the next page. */
+        PREFETCH,
+        /** Work nobody is waiting for, like warming the caches. */
+        BACKGROUND
+    }
+
+    private static final Map<Pool, ThreadPoolExecutor> sExecutors = new EnumMap<>(Pool.class);
+
+    private static final Map<Priority, LatencyHistogram> sWaitHistograms =
+            new EnumMap<>(Priority.class);
+
+    static {
+        sExecutors.put(Pool.NETWORK, newExecutor("LoadingEngine network", NETWORK_THREADS));
+        sExecutors.put(Pool.FETCH, newExecutor("LoadingEngine fetch", NETWORK_THREADS));
+        sExecutors.put(Pool.CPU, newExecutor("LoadingEngine cpu", CPU_THREADS));
+        for (Priority priority : Priority.values()) {
+            sWaitHistograms.put(priority, new LatencyHistogram(WINDOW_SIZE));
+        }
+    }
+
+    /**
+     * Orders the tasks of equal priority by submission.
+     */
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    /**
+     * Priority of the task running on each thread, null outside of a task.
+     */
+    private static final ThreadLocal<Priority> sCurrentPriority = new ThreadLocal<>();
+
+    private LoadingEngine() {
+
+    }
+
+    private static ThreadPoolExecutor newExecutor(final String name, int threads) {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name + " #" + mCount.getAndIncrement());
+            }
+        };
+        // The queue is unbounded, so the pool never grows past its core size and every
+        // task beyond it waits in priority order.
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * A task run by the engine. Override {@link #done()} to be told when it completed,
+     * failed or was cancelled, on the thread that finished it.
+     */
+    public static class Task<V> extends FutureTask<V> implements Comparable<Task<?>> {
+
+        private final Priority mPriority;
+
+        private final CancellationSignal mSignal;
+
+        private final long mSequence = sSequence.getAndIncrement();
+
+        private final long mEnqueuedNanos = System.nanoTime();
+
+        /**
+         * Constructs a new {@link Task}.
+         *
+         * @param priority decides which waiting task runs first.
+         * @param signal   skips the task if cancelled before it runs, may be null.
+         * @param callable is the work to do.
+         */
+        public Task(Priority priority, CancellationSignal signal, Callable<V> callable) {
+            super(callable);
+            mPriority = priority;
+            mSignal = signal;
+        }
+
+        @Override
+        public void run() {
+            sWaitHistograms.get(mPriority).record(System.nanoTime() - mEnqueuedNanos);
+            if (mSignal != null && mSignal.isCanceled()) {
+                cancel(false);
+                return;
+            }
+            Priority outer = sCurrentPriority.get();
+            sCurrentPriority.set(mPriority);
+            try {
+                super.run();
+            } finally {
+                sCurrentPriority.set(outer);
+            }
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            if (mPriority != other.mPriority) {
+                return mPriority.compareTo(other.mPriority);
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Queues the task on the pool.
+     */
+    public static <V> Task<V> execute(Pool pool, Task<V> task) {
+        sExecutors.get(pool).execute(task);
+        return task;
+    }
+
+    /**
+     * Returns the priority of the task running on the calling thread, or
+     * {@link Priority#FOREGROUND} if the thread isn't running one.
+     */
+    public static Priority getCurrentPriority() {
+        Priority priority = sCurrentPriority.get();
+        return priority == null ? Priority.FOREGROUND : priority;
+    }
+
+    /**
+     * Returns the number of tasks waiting for a thread of the pool.
+     */
+    public static int getQueueDepth(Pool pool) {
+        return sExecutors.get(pool).getQueue().size();
+    }
+
+    /**
+     * Returns the number of tasks running on the pool.
+     */
+    public static int getActiveCount(Pool pool) {
+        return sExecutors.get(pool).getActiveCount();
+    }
+
+    /**
+     * Returns the histogram of the time tasks of the priority waited for a thread.
+     */
+    public static LatencyHistogram getWaitHistogram(Priority priority) {
+        return sWaitHistograms.get(priority);
+    }
+}
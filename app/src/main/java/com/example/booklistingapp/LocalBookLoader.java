@@ -0,0 +1,77 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.database.SQLException;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Loads the books matching a query from the local {@link BookIndex}, without going to
+ * the network.
+ */
+public class LocalBookLoader extends EngineLoader<List<Book>> {
+
+    /**
+     * Tag for log messages
+     */
+    private static final String LOG_TAG = LocalBookLoader.class.getName();
+
+    /**
+     * Maximum number of books returned from the index.
+     */
+    private static final int MAX_RESULTS = 60;
+
+    /**
+     * Query entered by the user.
+     */
+    private String mQuery;
+
+    /**
+     * Builds the display model of each loaded book on a CPU thread.
+     */
+    private BookDisplayModel.Formatter mFormatter;
+
+    /**
+     * Constructs a new {@link LocalBookLoader}.
+     *
+     * @param context of the activity
+     * @param query   is the text entered by the user.
+     */
+    public LocalBookLoader(Context context, String query) {
+        super(context);
+        mQuery = query;
+        mFormatter = new BookDisplayModel.Formatter(
+                context.getString(R.string.by_author), context.getString(R.string.released));
+    }
+
+    /**
+     * Searches the index on the CPU pool of the {@link LoadingEngine}, ahead of the
+     * network load of the same query.
+     */
+    @Override
+    protected void startLoad(final CancellationSignal signal) {
+        Log.i(LOG_TAG, "TEST: startLoad() called ...");
+        LoadingEngine.execute(LoadingEngine.Pool.CPU, new LoadingEngine.Task<>(
+                LoadingEngine.Priority.FOREGROUND, signal, new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        List<Book> books;
+                        try {
+                            books = BookIndex.getInstance(getContext())
+                                    .search(mQuery, MAX_RESULTS);
+                        } catch (SQLException e) {
+                            // An unreadable index leaves the results to the network load.
+                            Log.e(LOG_TAG, "Problem searching the book index", e);
+                            books = new ArrayList<>();
+                        }
+                        mFormatter.prepare(books);
+                        publish(signal, books);
+                        return null;
+                    }
+                }));
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.booklistingapp;
+
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fetches several result pages of a query at the same time on the network pool of the
+ * {@link LoadingEngine}, so a deep result set costs roughly one round trip instead of one
+ * per page.
+ */
+public final class PagePrefetcher {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = PagePrefetcher.class.getName();
+
+    /**
+     * Receives the pages once every one of them has been fetched, failed or was
+     * cancelled.
+     */
+    public interface Callback {
+        /**
+         * Called on the thread that finished the last page.
+         *
+         * @param pages is each page in the order of the URLs, null if it wasn't fetched.
+         */
+        void onPagesFetched(List<List<Book>> pages);
+    }
+
+    private PagePrefetcher() {
+
+    }
+
+    /**
+     * Fetches every page URL concurrently and hands the pages to the callback. Pages are
+     * answered from the {@link BookCache} when possible and stored in it otherwise.
+     *
+     * @param pageUrls is the URL of each page, in result order.
+     * @param priority of the requests in the network queue.
+     * @param signal   cancels every page, waiting or in flight, when cancelled.
+     * @param listener is told about each book of the first page as it is parsed, so it
+     *                 can be shown before the pages are complete. May be null.
+     * @param callback receives the pages.
+     */
+    public static void fetchPages(List<String> pageUrls, LoadingEngine.Priority priority,
+                                  CancellationSignal signal,
+                                  final BookJsonParser.ProgressListener listener,
+                                  final Callback callback) {
+        final int count = pageUrls.size();
+        final AtomicReferenceArray<List<Book>> pages = new AtomicReferenceArray<>(count);
+        final AtomicInteger remaining = new AtomicInteger(count);
+        final List<CancellationSignal> pageSignals = new ArrayList<>(count);
+        final List<LoadingEngine.Task<List<Book>>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String pageUrl = pageUrls.get(i);
+            final int index = i;
+            final CancellationSignal pageSignal = new CancellationSignal();
+            pageSignals.add(pageSignal);
+            tasks.add(new LoadingEngine.Task<List<Book>>(priority, pageSignal,
+                    new Callable<List<Book>>() {
+                        @Override
+                        public List<Book> call() {
+                            // Books of later pages can't be shown before the pages
+                            // ahead of them are complete.
+                            return fetchPage(pageUrl, pageSignal, index == 0 ? listener : null);
+                        }
+                    }) {
+                @Override
+                protected void done() {
+                    if (!isCancelled()) {
+                        try {
+                            pages.set(index, get());
+                        } catch (ExecutionException e) {
+                            Log.e(LOG_TAG, "Problem fetching a page of books", e.getCause());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        List<List<Book>> result = new ArrayList<>(count);
+                        for (int page = 0; page < count; page++) {
+                            result.add(pages.get(page));
+                        }
+                        callback.onPagesFetched(result);
+                    }
+                }
+            });
+        }
+
+        // A CancellationSignal has a single listener, so fan the cancellation out to the
+        // signal of every page, which stops it waiting for its request, and to its task,
+        // which drops it from the queue. The request itself is only aborted once no
+        // caller is left waiting for it, see {@link RequestCoalescer}.
+        signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                for (int i = 0; i < count; i++) {
+                    pageSignals.get(i).cancel();
+                    tasks.get(i).cancel(true);
+                }
+            }
+        });
+        for (LoadingEngine.Task<List<Book>> task : tasks) {
+            LoadingEngine.execute(LoadingEngine.Pool.NETWORK, task);
+        }
+    }
+
+    /**
+     * Merges pages in order into a single list, dropping books whose volume id has
+     * already been seen. Merging stops after the first missing or short page, since the
+     * pages after it can't be placed without a gap.
+     *
+     * @param pages    is the result of {@link #fetchPages}.
+     * @param pageSize is the number of books requested per page.
+     */
+    public static List<Book> merge(List<List<Book>> pages, int pageSize) {
+        List<Book> books = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        for (List<Book> page : pages) {
+            if (page == null) {
+                break;
+            }
+            for (Book book : page) {
+                if (book.getId() == null || ids.add(book.getId())) {
+                    books.add(book);
+                }
+            }
+            if (page.size() < pageSize) {
+                break;
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Returns the number of books requested by the pages that can be merged, which is the
+     * start index of the page following them.
+     */
+    public static int countFetched(List<List<Book>> pages, int pageSize) {
+        int count = 0;
+        for (List<Book> page : pages) {
+            if (page == null) {
+                break;
+            }
+            count += page.size();
+            if (page.size() < pageSize) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if one of the pages that can be merged came back short, meaning the
+     * end of the results has been reached.
+     */
+    public static boolean reachedEnd(List<List<Book>> pages, int pageSize) {
+        for (List<Book> page : pages) {
+            if (page == null) {
+                return false;
+            }
+            if (page.size() < pageSize) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fetches a single page, from the {@link BookCache} when possible.
+     */
+    private static List<Book> fetchPage(String pageUrl, CancellationSignal signal,
+                                        BookJsonParser.ProgressListener listener) {
+        List<Book> books = BookCache.get(pageUrl);
+        if (books != null) {
+            return books;
+        }
+        // First pages fetched ahead of time by the {@link CacheWarmer} are shown right
+        // away. Once older than the time to live of the {@link BookCache} they are fetched
+        // again in the background for the next search, and not copied into the cache,
+        // which would make them valid for that long again.
+        WarmCache.Page warmPage = WarmCache.get(pageUrl);
+        if (warmPage != null) {
+            if (warmPage.ageMillis > BookCache.getTtlMillis()) {
+                revalidateAsync(pageUrl);
+            }
+            return warmPage.books;
+        }
+        books = QueryUtils.fetchBookData(pageUrl, signal, listener);
+        if (!signal.isCanceled()) {
+            BookCache.put(pageUrl, books);
+        }
+        return books;
+    }
+
+    /**
+     * Fetches a stale warmed page again as background work, and stores it in the
+     * {@link WarmCache} and the {@link BookCache}. The page shown meanwhile isn't
+     * replaced, the next search for it gets the new one.
+     */
+    private static void revalidateAsync(final String pageUrl) {
+        final CancellationSignal signal = new CancellationSignal();
+        LoadingEngine.execute(LoadingEngine.Pool.NETWORK,
+                new LoadingEngine.Task<>(LoadingEngine.Priority.BACKGROUND, signal,
+                        new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                List<Book> books = QueryUtils.fetchBookData(pageUrl, signal);
+                                if (books == null) {
+                                    return null;
+                                }
+                                BookCache.put(pageUrl, books);
+                                try {
+                                    WarmCache.put(pageUrl, books);
+                                } catch (IOException e) {
+                                    Log.e(LOG_TAG, "Problem storing a revalidated page", e);
+                                }
+                                return null;
+                            }
+                        }));
+    }
+}
@@ -1,22 +1,28 @@
 package com.example.booklistingapp;
 
-import android.text.TextUtils;
+import android.os.CancellationSignal;
+import android.os.Process;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Helper methods relating to requesting and receiving books data from Google books.
@@ -28,36 +34,113 @@ public final class QueryUtils {
      */
     public static final String LOG_TAG = QueryUtils.class.getName();
 
+    /**
+     * Longest sleep between checks of the cancellation signal during a retry backoff.
+     */
+    private static final long SLEEP_SLICE_MILLIS = 50;
+
+    /**
+     * Number of request URLs whose validators are remembered for the searches, and for
+     * each batch of bulk queries.
+     */
+    private static final int REVALIDATION_ENTRIES = 32;
+    private static final int BULK_REVALIDATION_ENTRIES = 64;
+
+    /**
+     * Validators of the recent responses to the searches.
+     */
+    private static final RevalidationCache sRevalidationCache =
+            new RevalidationCache(REVALIDATION_ENTRIES);
+
+    /**
+     * Runs the requests of hedged fetches, the threads are created on demand.
+     */
+    private static final ExecutorService sHedgeExecutor = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "HedgedRequest #" + mCount.getAndIncrement());
+                }
+            });
+
     private QueryUtils() {
 
     }
 
+    /**
+     * Returns the cache of validators shared by the searches.
+     */
+    public static RevalidationCache getRevalidationCache() {
+        return sRevalidationCache;
+    }
+
     /**
      * Query the Google books data set and return a list of {@link Book} objects.
      */
     public static List<Book> fetchBookData(String requestUrl) {
+        return fetchBookData(requestUrl, null);
+    }
 
-        Log.i(LOG_TAG, "TEST: fetchBookData() called ...");
+    /**
+     * Query the Google books data set and return a list of {@link Book} objects.
+     * Concurrent callers asking for the same URL share a single fetch, see
+     * {@link RequestCoalescer}, so the returned list must not be modified.
+     * Cancelling the signal stops waiting for the result and the method returns null.
+     */
+    public static List<Book> fetchBookData(String requestUrl, CancellationSignal signal) {
+        return fetchBookData(requestUrl, signal, null);
+    }
 
-        try {
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Query the Google books data set like {@link #fetchBookData(String,
+     * CancellationSignal)}, telling the listener about each book as soon as it has been
+     * parsed. Only the caller that starts a fetch is told, callers joining it get the
+     * complete result. An attempt that fails and is retried starts over from the first
+     * book.
+     *
+     * @param listener is told about the books parsed so far, may be null.
+     */
+    public static List<Book> fetchBookData(String requestUrl, CancellationSignal signal,
+                                           BookJsonParser.ProgressListener listener) {
+        return RequestCoalescer.fetch(requestUrl, signal, listener);
+    }
+
+    /**
+     * Query the Google books data set and return a list of {@link Book} objects, without
+     * sharing the fetch. Cancelling the signal disconnects the HTTP connection, which
+     * aborts a blocked connect or read, and the method returns null.
+     */
+    static List<Book> fetchBookDataUnshared(String requestUrl, CancellationSignal signal,
+                                            BookJsonParser.ProgressListener listener) {
+
+        Log.i(LOG_TAG, "TEST: fetchBookData() called ...");
+        FetchMetrics.incrementRequests();
+        long fetchStart = FetchMetrics.start();
 
         // Create URL object.
+        long stageStart = FetchMetrics.start();
         URL url = createUrl(requestUrl);
+        FetchMetrics.record(FetchMetrics.Stage.CREATE_URL, stageStart);
 
-        // Perform HTTP request to the URL and receive a JSON response back.
-        String jsonResponse = null;
-        try {
-            jsonResponse = makeHttpRequest(url);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem making the HTTP request.", e);
+        // Perform HTTP request to the URL and parse the JSON response into a list of
+        // {@link Book}s as it is read from the connection.
+        List<Book> books = null;
+        if (url != null) {
+            books = fetchWithRetries(url, signal, listener);
         }
 
-        // Extract relevant fields from the JSON response and create a list of {@link Book}s.
-        List<Book> books = extractFeatureFromJson(jsonResponse);
+        if (books == null) {
+            FetchMetrics.incrementFailures();
+        }
+        FetchMetrics.record(FetchMetrics.Stage.TOTAL, fetchStart);
 
         // Return the list of {@link Book}s
         return books;
@@ -77,38 +160,315 @@ public final class QueryUtils {
     }
 
     /**
-     * Make a HTTP request to the given URL and return a string as the response.
+     * Fetches the URL, retrying network errors, 429 and 5xx responses after a backoff
+     * with jitter, and returns null once every attempt failed. The fetch goes through the
+     * circuit breaker as a whole: it is refused without a request while the API is down,
+     * and counts as a single failure once its attempts are used up, so one bad fetch
+     * can't open the circuit by itself.
+     */
+    private static List<Book> fetchWithRetries(URL url, CancellationSignal signal,
+                                               BookJsonParser.ProgressListener listener) {
+        CircuitBreaker circuitBreaker = FetchPolicy.getCircuitBreaker();
+        if (!circuitBreaker.allowRequest()) {
+            Log.w(LOG_TAG, "Circuit open, not requesting " + url);
+            return null;
+        }
+
+        int maxAttempts = FetchPolicy.getMaxAttempts();
+        for (int attempt = 1; ; attempt++) {
+            IOException failure;
+            try {
+                long attemptStart = FetchMetrics.start();
+                List<Book> books = makeHedgedRequest(url, signal, listener);
+                FetchMetrics.record(FetchMetrics.Stage.ATTEMPT, attemptStart);
+                circuitBreaker.onSuccess();
+                return books;
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            if (signal != null && signal.isCanceled()) {
+                Log.i(LOG_TAG, "Request cancelled: " + url);
+                circuitBreaker.onCancel();
+                return null;
+            }
+
+            // Other error codes mean the API is up, and would fail again.
+            if (!FetchPolicy.isRetryable(failure)) {
+                Log.e(LOG_TAG, "Problem retrieving the book JSON results", failure);
+                circuitBreaker.onSuccess();
+                return null;
+            }
+            if (attempt >= maxAttempts) {
+                Log.e(LOG_TAG, "Problem retrieving the book JSON results", failure);
+                if (circuitBreaker.onFailure()) {
+                    Log.w(LOG_TAG, "Circuit opened after failing to fetch " + url);
+                }
+                return null;
+            }
+
+            long backoffMillis = FetchPolicy.getBackoffMillis(attempt, failure);
+            Log.w(LOG_TAG, "Retrying in " + backoffMillis + " ms after: " + failure);
+            if (!sleep(backoffMillis, signal)) {
+                circuitBreaker.onCancel();
+                return null;
+            }
+            if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+                // Other fetches found the API down in the meantime.
+                Log.w(LOG_TAG, "Circuit opened, not retrying " + url);
+                return null;
+            }
+            FetchMetrics.incrementRetries();
+        }
+    }
+
+    /**
+     * Sleeps for the given time, returning early with false if the signal is cancelled.
+     */
+    private static boolean sleep(long millis, CancellationSignal signal) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (signal == null || !signal.isCanceled()) {
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                return true;
+            }
+            try {
+                Thread.sleep(Math.min(SLEEP_SLICE_MILLIS,
+                        TimeUnit.NANOSECONDS.toMillis(remainingNanos) + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Make a HTTP request to the given URL, and when it is slower than the p95 latency of
+     * recent requests and hedging is enabled, a duplicate of it. The first response wins
+     * and the other request is cancelled, so a single slow server or connection doesn't
+     * set the latency of the fetch.
+     */
+    private static List<Book> makeHedgedRequest(final URL url, CancellationSignal signal,
+                                                BookJsonParser.ProgressListener listener)
+            throws IOException {
+        long hedgeDelayMillis = FetchPolicy.getHedgeDelayMillis();
+        if (hedgeDelayMillis < 0) {
+            return makeHttpRequest(url, signal, listener, sRevalidationCache);
+        }
+
+        final CancellationSignal primarySignal = new CancellationSignal();
+        final CancellationSignal hedgeSignal = new CancellationSignal();
+        if (signal != null) {
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    primarySignal.cancel();
+                    hedgeSignal.cancel();
+                }
+            });
+        }
+
+        CompletionService<List<Book>> completionService =
+                new ExecutorCompletionService<>(sHedgeExecutor);
+        try {
+            completionService.submit(newRequest(url, primarySignal, listener));
+            int pending = 1;
+            Future<List<Book>> done = completionService.poll(hedgeDelayMillis,
+                    TimeUnit.MILLISECONDS);
+            if (done == null) {
+                Log.i(LOG_TAG, "Hedging the request after " + hedgeDelayMillis + " ms: " + url);
+                FetchMetrics.incrementHedges();
+                completionService.submit(newRequest(url, hedgeSignal, listener));
+                pending++;
+            }
+
+            // Return the first successful response, or the last failure.
+            IOException failure = null;
+            while (pending > 0) {
+                if (done == null) {
+                    done = completionService.take();
+                }
+                pending--;
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    failure = toIOException(e.getCause());
+                }
+                done = null;
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the response");
+        } finally {
+            // Abort the request that lost. The winner is done, so this doesn't touch it.
+            primarySignal.cancel();
+            hedgeSignal.cancel();
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
+        }
+    }
+
+    /**
+     * Returns a task making a HTTP request to the URL on the hedging executor.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    private static Callable<List<Book>> newRequest(final URL url,
+                                                   final CancellationSignal signal,
+                                                   final BookJsonParser.ProgressListener
+                                                           listener) {
+        return new Callable<List<Book>>() {
+            @Override
+            public List<Book> call() throws IOException {
+                return makeHttpRequest(url, signal, listener, sRevalidationCache);
+            }
+        };
+    }
+
+    /**
+     * Returns a transport for the requests of a {@link BulkQueryExecutor}. Each request is
+     * a single attempt, since the executor retries on its own, and is revalidated against
+     * a cache of the transport's own.
+     */
+    public static BulkQueryExecutor.Transport newBulkTransport() {
+        final RevalidationCache cache = new RevalidationCache(BULK_REVALIDATION_ENTRIES);
+        return new BulkQueryExecutor.Transport() {
+            @Override
+            public List<Book> fetch(String requestUrl,
+                                    BulkQueryExecutor.Cancellation cancellation)
+                    throws IOException {
+                final CancellationSignal signal = new CancellationSignal();
+                cancellation.setOnCancelListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        signal.cancel();
+                    }
+                });
+                try {
+                    return makeHttpRequest(new URL(requestUrl), signal, null, cache);
+                } finally {
+                    cancellation.setOnCancelListener(null);
+                }
+            }
+        };
+    }
 
-        // If the URL is null, then return early.
-        if (url == null) {
-            return jsonResponse;
+    private static IOException toIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
         }
+        return new IOException(cause);
+    }
+
+    /**
+     * Make a HTTP request to the given URL and return the list of {@link Book}s parsed
+     * from the response.
+     * <p>
+     * The response is requested gzip compressed and, when an earlier response for the same
+     * URL carried an ETag or Last-Modified header, as a conditional GET so an unchanged
+     * result costs a 304 instead of the whole body. Successful responses are read to the
+     * end and the connection is not disconnected, so it goes back to the keep-alive pool
+     * and the next query skips the TCP and TLS handshakes.
+     * <p>
+     * The timeouts adapt to the latency of recent requests, see {@link FetchPolicy}.
+     *
+     * @param cache holds the validators of earlier responses, and of this one once parsed.
+     * @throws HttpStatusException if the server answered with an error response code.
+     * @throws IOException         if the request failed or the signal was cancelled.
+     */
+    private static List<Book> makeHttpRequest(URL url, CancellationSignal signal,
+                                              BookJsonParser.ProgressListener listener,
+                                              RevalidationCache cache)
+            throws IOException {
+        List<Book> books;
+
+        String requestUrl = url.toString();
+        RevalidationCache.Entry cached = cache.get(requestUrl);
 
         HttpURLConnection urlConnection = null;
         InputStream inputStream = null;
+        boolean reusable = false;
         try {
+            long stageStart = FetchMetrics.start();
             urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* Milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* Milliseconds */);
+            if (signal != null) {
+                // Disconnecting from the cancelling thread makes a blocked read throw.
+                final HttpURLConnection connection = urlConnection;
+                signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                    @Override
+                    public void onCancel() {
+                        connection.disconnect();
+                    }
+                });
+            }
+            urlConnection.setReadTimeout(FetchPolicy.getReadTimeoutMillis());
+            urlConnection.setConnectTimeout(FetchPolicy.getConnectTimeoutMillis());
             urlConnection.setRequestMethod("GET");
+            // Results are cached and revalidated by the app, keep them out of the HTTP
+            // response cache that holds the thumbnails.
+            urlConnection.setUseCaches(false);
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            if (cached != null) {
+                if (cached.eTag != null) {
+                    urlConnection.setRequestProperty("If-None-Match", cached.eTag);
+                }
+                if (cached.lastModified != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", cached.lastModified);
+                }
+            }
             urlConnection.connect();
+            FetchMetrics.record(FetchMetrics.Stage.CONNECT, stageStart);
+
+            stageStart = FetchMetrics.start();
+            int responseCode = urlConnection.getResponseCode();
+            FetchMetrics.record(FetchMetrics.Stage.RESPONSE_CODE, stageStart);
+            long responseNanos = System.nanoTime() - stageStart;
 
             // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            // then parse the response while reading the input stream.
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                stageStart = FetchMetrics.start();
+                // Count the bytes on the wire, and the bytes decoded after gunzipping.
+                CountingInputStream wireStream =
+                        new CountingInputStream(urlConnection.getInputStream());
+                CountingInputStream decodedStream = wireStream;
+                if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                    decodedStream = new CountingInputStream(new GZIPInputStream(wireStream));
+                }
+                inputStream = decodedStream;
+                books = extractBooksFromStream(inputStream, listener);
+                if (signal != null && signal.isCanceled()) {
+                    throw new IOException("Request cancelled");
+                }
+
+                // Read whatever the parser left behind, the connection can only be
+                // reused once the body has been consumed.
+                drain(inputStream);
+                FetchMetrics.record(FetchMetrics.Stage.READ_AND_PARSE, stageStart);
+                FetchMetrics.recordPayload(wireStream.getCount(), decodedStream.getCount());
+                FetchProfile.recordResponse(responseNanos, wireStream.getCount(),
+                        System.nanoTime() - stageStart);
+                FetchMetrics.addItemsParsed(books.size());
+
+                cache.put(requestUrl, urlConnection.getHeaderField("ETag"),
+                        urlConnection.getHeaderField("Last-Modified"), books);
+                reusable = true;
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                // The result hasn't changed since it was last parsed.
+                books = cached.getBooks();
+                FetchMetrics.incrementNotModified();
+                reusable = true;
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                throw new HttpStatusException(responseCode,
+                        parseRetryAfter(urlConnection.getHeaderField("Retry-After")));
             }
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the book JSON results", e);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (signal != null) {
+                signal.setOnCancelListener(null);
             }
             if (inputStream != null) {
                 // Closing the input stream could throw an IOException, which is why
@@ -116,90 +476,60 @@ public final class QueryUtils {
                 // could be thrown.
                 inputStream.close();
             }
+            // Only give up the socket when the response wasn't read to the end.
+            if (urlConnection != null && !reusable) {
+                urlConnection.disconnect();
+            }
         }
-        return jsonResponse;
+        return books;
     }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
+     * Returns the delay of a "Retry-After" header given in seconds, in milliseconds, or -1
+     * if there is none. A date is not supported and also gives -1.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
-            }
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
         }
-        return output.toString();
     }
 
-    private static List<Book> extractFeatureFromJson(String bookJSON) {
-        String author = "";
-
-        // If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(bookJSON)) {
-            return null;
+    /**
+     * Read and discard the rest of the {@link InputStream}.
+     */
+    private static void drain(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (inputStream.read(buffer) != -1) {
+            // Discard.
         }
+    }
 
+    /**
+     * Parse the JSON response straight from the {@link InputStream} and return the list of
+     * {@link Book}s found under "items". Fields we don't display are skipped without being
+     * decoded.
+     * <p>
+     * A truncated or malformed response fails the attempt, so it is retried instead of
+     * being cached as the whole result. The books parsed before the error have only been
+     * shown through the listener.
+     *
+     * @throws IOException if the response can't be read to the end or is malformed.
+     */
+    private static List<Book> extractBooksFromStream(InputStream inputStream,
+                                                     BookJsonParser.ProgressListener listener)
+            throws IOException {
         // Create an empty ArrayList that we can start adding books to.
         List<Book> books = new ArrayList<>();
 
         try {
-            // Create a JSONObject from the JSON response string.
-            JSONObject baseJsonResponse = new JSONObject(bookJSON);
-
-            // Extract the JSONArray associated with the key called "items"
-            JSONArray bookArray = baseJsonResponse.getJSONArray("items");
-
-            // For each book in the bookArray, create a {@link Book} object.
-            for (int i = 0; i < bookArray.length(); i++) {
-                // Get a single book at position i within the list of books.
-                JSONObject currentBook = bookArray.getJSONObject(i);
-
-                // For a given book, extract the JSONObject associated with the
-                // key called "volumeInfo".
-                JSONObject volumeInfo = currentBook.getJSONObject("volumeInfo");
-
-                // Extract the value for the key called "title".
-                String title = volumeInfo.getString("title");
-
-                // Extract the value for the key called "authors"
-                JSONArray authorsArray = volumeInfo.getJSONArray("authors");
-
-                // For each author in the authorsArray extract the value
-                // for the key called "authors".
-                for (int j = 0; j < authorsArray.length(); j++) {
-                    author = authorsArray.getString(j);
-                }
-
-                // Extract the value for the key called "publishedDate"
-                String publishDate = volumeInfo.getString("publishedDate");
-
-                // Extract the value for the key called "description"
-                String description = volumeInfo.getString("description");
-
-                // Extract the JSONObject associated with the key called "imageLinks".
-                JSONObject imageLinks = volumeInfo.getJSONObject("imageLinks");
-                // Extract the value for the key called "smallThumbnail".
-                String imageUrl = imageLinks.getString("smallThumbnail");
-
-                // Create a new {@link Book} object with the title, author and
-                // publishDate from the JSON response
-                Book book = new Book(title, author , publishDate, description, imageUrl);
-
-                // Add the new {@link Book} to the list of books
-                books.add(book);
-            }
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e("QueryUtils", "Problem with parsing the book JSON results", e);
+            BookJsonParser.readBooks(inputStream, books, listener);
+        } catch (IllegalStateException e) {
+            throw new IOException("Problem with parsing the book JSON results", e);
         }
 
         // Return the list of books
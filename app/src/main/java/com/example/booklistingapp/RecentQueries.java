@@ -0,0 +1,169 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers how often and how recently each query was searched for, so the most frequent
+ * recent queries can be fetched ahead of time by the {@link CacheWarmer}.
+ * <p>
+ * Each query is stored in its own preference as "count,lastUsedMillis".
+ */
+public final class RecentQueries {
+
+    /**
+     * Name of the preferences file the queries are stored in.
+     */
+    private static final String PREFS_NAME = "recent_queries";
+
+    /**
+     * Number of queries remembered, the least frequent ones are forgotten first.
+     */
+    private static final int MAX_QUERIES = 50;
+
+    /**
+     * Queries not searched for in this long are no longer returned, in milliseconds.
+     */
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    /**
+     * Single thread the queries are recorded on, since reading the preferences the first
+     * time reads from disk.
+     */
+    private static final ExecutorService sWriteExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Use count and last use of a single query.
+     */
+    private static final class Usage {
+        final String query;
+        final int count;
+        final long lastUsedMillis;
+
+        Usage(String query, int count, long lastUsedMillis) {
+            this.query = query;
+            this.count = count;
+            this.lastUsedMillis = lastUsedMillis;
+        }
+    }
+
+    /**
+     * Most frequent first, then most recent.
+     */
+    private static final Comparator<Usage> BY_FREQUENCY = new Comparator<Usage>() {
+        @Override
+        public int compare(Usage first, Usage second) {
+            if (first.count != second.count) {
+                return second.count - first.count;
+            }
+            return Long.compare(second.lastUsedMillis, first.lastUsedMillis);
+        }
+    };
+
+    private RecentQueries() {
+
+    }
+
+    /**
+     * Counts a search for the query in the background.
+     *
+     * @param context of the app.
+     * @param query   is the normalized query, see {@link BookActivity#normalizeQuery}.
+     */
+    public static void recordAsync(Context context, final String query) {
+        final Context appContext = context.getApplicationContext();
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                record(appContext, query);
+            }
+        });
+    }
+
+    private static synchronized void record(Context context, String query) {
+        SharedPreferences preferences = getPreferences(context);
+        Usage usage = parse(query, preferences.getString(query, null));
+        int count = usage == null ? 1 : usage.count + 1;
+        SharedPreferences.Editor editor = preferences.edit()
+                .putString(query, count + "," + System.currentTimeMillis());
+
+        // Forget the least frequent queries beyond the limit.
+        List<Usage> usages = readAll(preferences);
+        if (usages.size() > MAX_QUERIES) {
+            Collections.sort(usages, BY_FREQUENCY);
+            for (Usage forgotten : usages.subList(MAX_QUERIES, usages.size())) {
+                if (!forgotten.query.equals(query)) {
+                    editor.remove(forgotten.query);
+                }
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Returns the queries searched for in the last 30 days, most frequent first. This reads
+     * the preferences on the calling thread.
+     *
+     * @param limit is the maximum number of queries returned.
+     */
+    public static synchronized List<String> getFrequent(Context context, int limit) {
+        List<Usage> usages = readAll(getPreferences(context));
+        Collections.sort(usages, BY_FREQUENCY);
+        long oldest = System.currentTimeMillis() - MAX_AGE_MILLIS;
+        List<String> queries = new ArrayList<>();
+        for (Usage usage : usages) {
+            if (queries.size() == limit) {
+                break;
+            }
+            if (usage.lastUsedMillis >= oldest) {
+                queries.add(usage.query);
+            }
+        }
+        return queries;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static List<Usage> readAll(SharedPreferences preferences) {
+        List<Usage> usages = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            Object value = entry.getValue();
+            Usage usage = value instanceof String ? parse(entry.getKey(), (String) value) : null;
+            if (usage != null) {
+                usages.add(usage);
+            }
+        }
+        return usages;
+    }
+
+    /**
+     * Parses a stored "count,lastUsedMillis" value, returns null if it can't be parsed.
+     */
+    private static Usage parse(String query, String value) {
+        if (value == null) {
+            return null;
+        }
+        int comma = value.indexOf(',');
+        if (comma < 0) {
+            return null;
+        }
+        try {
+            return new Usage(query, Integer.parseInt(value.substring(0, comma)),
+                    Long.parseLong(value.substring(comma + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.booklistingapp;
+
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent fetches of the same request URL into one.
+ * <p>
+ * The first caller for a URL starts a fetch of it on the {@link LoadingEngine}, and every
+ * caller asking for the same URL before that fetch completes gets the same list of books.
+ * Every caller, the first included, only waits for the fetch: a caller that cancels only
+ * stops waiting, and the shared fetch is cancelled once no caller is left waiting for it.
+ */
+public final class RequestCoalescer {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = RequestCoalescer.class.getName();
+
+    /**
+     * Fetches in flight, by request URL.
+     */
+    private static final Map<String, Call> sCalls = new HashMap<>();
+
+    /**
+     * Number of fetches that went to the network.
+     */
+    private static final AtomicLong sFetchCount = new AtomicLong();
+
+    /**
+     * Number of callers that joined a fetch in flight instead of starting their own.
+     */
+    private static final AtomicLong sSavedCount = new AtomicLong();
+
+    /**
+     * A fetch in flight and the callers waiting for it.
+     */
+    private static final class Call {
+
+        /**
+         * Cancels the shared fetch.
+         */
+        final CancellationSignal mSignal = new CancellationSignal();
+
+        /**
+         * Number of callers that haven't stopped waiting, guarded by {@link #sCalls}.
+         */
+        int mWaiters = 1;
+
+        /**
+         * Told about the books parsed, until the caller that started the fetch stops
+         * waiting.
+         */
+        volatile BookJsonParser.ProgressListener mListener;
+
+        /**
+         * Result of the fetch and whether it is complete, guarded by the call.
+         */
+        List<Book> mBooks;
+        boolean mDone;
+    }
+
+    private RequestCoalescer() {
+
+    }
+
+    /**
+     * Returns the books of the request URL, fetching them unless a fetch of the same URL
+     * is already in flight, in which case its result is waited for.
+     *
+     * @param requestUrl is the URL of the request.
+     * @param signal     stops waiting for the result when cancelled, may be null.
+     * @param listener   is told about each book parsed if this call starts the fetch,
+     *                   until it stops waiting. May be null.
+     * @return the books, or null if the fetch failed, or the signal was cancelled or the
+     * thread interrupted before it completed.
+     */
+    public static List<Book> fetch(String requestUrl, CancellationSignal signal,
+                                   BookJsonParser.ProgressListener listener) {
+        final Call call;
+        boolean leader;
+        synchronized (sCalls) {
+            Call inFlight = sCalls.get(requestUrl);
+            leader = inFlight == null;
+            if (leader) {
+                inFlight = new Call();
+                inFlight.mListener = listener;
+                sCalls.put(requestUrl, inFlight);
+            } else {
+                inFlight.mWaiters++;
+            }
+            call = inFlight;
+        }
+
+        if (leader) {
+            sFetchCount.incrementAndGet();
+            start(requestUrl, call);
+        } else {
+            sSavedCount.incrementAndGet();
+            Log.i(LOG_TAG, "Joined the fetch in flight of " + requestUrl);
+        }
+
+        // The caller that started the fetch waits for it like any other, so cancelling
+        // it or interrupting its thread doesn't touch the fetch the others wait for.
+        if (signal != null) {
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    synchronized (call) {
+                        call.notifyAll();
+                    }
+                }
+            });
+        }
+        try {
+            synchronized (call) {
+                while (!call.mDone && (signal == null || !signal.isCanceled())) {
+                    try {
+                        call.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                if (call.mDone) {
+                    return call.mBooks;
+                }
+            }
+        } finally {
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
+        }
+        leave(requestUrl, call, listener);
+        return null;
+    }
+
+    /**
+     * Starts the shared fetch of the request URL on the fetch pool of the
+     * {@link LoadingEngine}, at the priority of the task that asked for it. The fetch is
+     * only cancelled through the signal of the call, once no caller is left waiting.
+     */
+    private static void start(final String requestUrl, final Call call) {
+        final BookJsonParser.ProgressListener progress = call.mListener == null ? null
+                : new BookJsonParser.ProgressListener() {
+                    @Override
+                    public void onBooksParsed(List<Book> books) {
+                        BookJsonParser.ProgressListener listener = call.mListener;
+                        if (listener != null) {
+                            listener.onBooksParsed(books);
+                        }
+                    }
+                };
+        LoadingEngine.execute(LoadingEngine.Pool.FETCH, new LoadingEngine.Task<List<Book>>(
+                LoadingEngine.getCurrentPriority(), call.mSignal, new Callable<List<Book>>() {
+                    @Override
+                    public List<Book> call() {
+                        return QueryUtils.fetchBookDataUnshared(requestUrl, call.mSignal,
+                                progress);
+                    }
+                }) {
+            @Override
+            protected void done() {
+                List<Book> books = null;
+                if (!isCancelled()) {
+                    try {
+                        books = get();
+                    } catch (ExecutionException e) {
+                        Log.e(LOG_TAG, "Problem fetching " + requestUrl, e.getCause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                finish(requestUrl, call, books);
+            }
+        });
+    }
+
+    /**
+     * Hands the result of the fetch to the callers waiting for it.
+     */
+    private static void finish(String requestUrl, Call call, List<Book> books) {
+        // Callers arriving from now on start a new fetch.
+        synchronized (sCalls) {
+            if (sCalls.get(requestUrl) == call) {
+                sCalls.remove(requestUrl);
+            }
+        }
+        synchronized (call) {
+            call.mBooks = books;
+            call.mDone = true;
+            call.notifyAll();
+        }
+    }
+
+    /**
+     * Removes a caller that stopped waiting from the call, and cancels the fetch if no
+     * caller is left waiting for it.
+     */
+    private static void leave(String requestUrl, Call call,
+                              BookJsonParser.ProgressListener listener) {
+        boolean cancel = false;
+        synchronized (sCalls) {
+            call.mWaiters--;
+            if (listener != null && call.mListener == listener) {
+                call.mListener = null;
+            }
+            if (call.mWaiters == 0) {
+                if (sCalls.get(requestUrl) == call) {
+                    sCalls.remove(requestUrl);
+                }
+                cancel = true;
+            }
+        }
+        if (cancel) {
+            call.mSignal.cancel();
+        }
+    }
+
+    /**
+     * Returns the number of fetches that went to the network.
+     */
+    public static long getFetchCount() {
+        return sFetchCount.get();
+    }
+
+    /**
+     * Returns the number of network calls saved by joining a fetch in flight.
+     */
+    public static long getSavedCount() {
+        return sSavedCount.get();
+    }
+}
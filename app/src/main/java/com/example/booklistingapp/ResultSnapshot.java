@@ -0,0 +1,312 @@
+package com.example.booklistingapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Binary snapshot of the last results shown, so a cold start can show them right away
+ * without a network request or a JSON parse.
+ * <p>
+ * The file holds a header with the query and the offset of every book, followed by the
+ * books as length prefixed UTF-8 fields. It is memory-mapped when read and each book is
+ * only decoded when the list asks for it, so opening it costs little more than reading
+ * the header, whatever the number of books.
+ */
+public final class ResultSnapshot {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ResultSnapshot.class.getName();
+
+    /**
+     * First bytes of a snapshot file, "BKS" and the format version.
+     */
+    private static final int MAGIC = 0x424B5301;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Largest number of books written to a snapshot, the first screens of results.
+     */
+    private static final int MAX_BOOKS = 100;
+
+    /**
+     * Single thread the snapshots are written and opened on, so a snapshot is only opened
+     * once the one being saved is written.
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Callback for {@link #openAsync}.
+     */
+    public interface Callback {
+        /**
+         * Called on the main thread.
+         *
+         * @param snapshot is the snapshot, or null if there is none or it can't be read.
+         */
+        void onOpened(ResultSnapshot snapshot);
+    }
+
+    /**
+     * Query of the books in the snapshot.
+     */
+    private final String mQuery;
+
+    /**
+     * Books of the snapshot, decoded when first read.
+     */
+    private final List<Book> mBooks;
+
+    private ResultSnapshot(String query, List<Book> books) {
+        mQuery = query;
+        mBooks = books;
+    }
+
+    /**
+     * Returns the query of the books in the snapshot.
+     */
+    public String getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Returns the books of the snapshot. The list is read only, and each book is decoded
+     * from the mapped file the first time it is read.
+     */
+    public List<Book> getBooks() {
+        return mBooks;
+    }
+
+    /**
+     * Writes the snapshot of the query and its books in the background, replacing the
+     * previous one. The file is written next to it and renamed, so a snapshot is never
+     * read half written.
+     */
+    public static void saveAsync(final File file, final String query, List<Book> books) {
+        final List<Book> copy = new ArrayList<>(books.subList(0, Math.min(books.size(),
+                MAX_BOOKS)));
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save(file, query, copy);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem writing the result snapshot", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the snapshot of the query and its books on the calling thread, the same way
+     * as {@link #saveAsync}.
+     */
+    static void save(File file, String query, List<Book> books) throws IOException {
+        // Write the books first, to know the offset of each one.
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        int[] offsets = new int[books.size()];
+        for (int i = 0; i < books.size(); i++) {
+            Book book = books.get(i);
+            offsets[i] = out.size();
+            writeBytes(out, encode(book.getId()));
+            writeBytes(out, encode(book.getTitle()));
+            writeBytes(out, encode(book.getAuthor()));
+            writeBytes(out, encode(book.getPublishDate()));
+            writeBytes(out, book.getDescriptionBytes());
+            writeBytes(out, encode(book.getImageUrl()));
+        }
+        out.flush();
+
+        byte[] queryBytes = encode(query);
+        int headerSize = 4 + 4 + queryBytes.length + 4 + 4 * offsets.length;
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream fileOut = new DataOutputStream(new FileOutputStream(tempFile));
+        try {
+            fileOut.writeInt(MAGIC);
+            writeBytes(fileOut, queryBytes);
+            fileOut.writeInt(offsets.length);
+            for (int offset : offsets) {
+                fileOut.writeInt(headerSize + offset);
+            }
+            records.writeTo(fileOut);
+        } finally {
+            fileOut.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Could not rename " + tempFile + " to " + file);
+        }
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(UTF_8);
+    }
+
+    /**
+     * Writes the bytes with their length, -1 for null.
+     */
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Opens the snapshot in the background, the way {@link #open} does, then passes it to
+     * the callback on the main thread.
+     */
+    public static void openAsync(final File file, final Callback callback) {
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ResultSnapshot snapshot = open(file);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onOpened(snapshot);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Maps the snapshot file and reads its header. The books are decoded when read.
+     *
+     * @return the snapshot, or null if there is none or it can't be read.
+     */
+    public static ResultSnapshot open(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            ByteBuffer buffer;
+            try {
+                // The mapping stays valid after the file is closed.
+                buffer = randomAccessFile.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+            } finally {
+                randomAccessFile.close();
+            }
+
+            if (buffer.getInt(0) != MAGIC) {
+                Log.w(LOG_TAG, "Ignoring a result snapshot of an unknown format");
+                return null;
+            }
+            int position = 4;
+            String query = readString(buffer, position);
+            position = skip(buffer, position);
+            int count = buffer.getInt(position);
+            position += 4;
+            int[] offsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = buffer.getInt(position + 4 * i);
+            }
+            return new ResultSnapshot(query, new MappedBookList(buffer, offsets));
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Problem reading the result snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the length prefixed string at the given position, without moving the buffer.
+     */
+    private static String readString(ByteBuffer buffer, int position) {
+        byte[] bytes = readBytes(buffer, position);
+        return bytes == null ? null : new String(bytes, UTF_8);
+    }
+
+    /**
+     * Reads the length prefixed bytes at the given position, without moving the buffer.
+     */
+    private static byte[] readBytes(ByteBuffer buffer, int position) {
+        int length = buffer.getInt(position);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + 4);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the position after the length prefixed field at the given position.
+     */
+    private static int skip(ByteBuffer buffer, int position) {
+        return position + 4 + Math.max(buffer.getInt(position), 0);
+    }
+
+    /**
+     * Read only list of the books of a mapped snapshot, decoding each book the first time
+     * it is read. Reads use absolute positions, so the list can be read from any thread.
+     */
+    private static final class MappedBookList extends AbstractList<Book> {
+
+        private final ByteBuffer mBuffer;
+
+        private final int[] mOffsets;
+
+        private final Book[] mBooks;
+
+        MappedBookList(ByteBuffer buffer, int[] offsets) {
+            mBuffer = buffer;
+            mOffsets = offsets;
+            mBooks = new Book[offsets.length];
+        }
+
+        @Override
+        public synchronized Book get(int index) {
+            Book book = mBooks[index];
+            if (book == null) {
+                book = decode(mOffsets[index]);
+                mBooks[index] = book;
+            }
+            return book;
+        }
+
+        @Override
+        public int size() {
+            return mOffsets.length;
+        }
+
+        private Book decode(int position) {
+            String[] fields = new String[4];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = readString(mBuffer, position);
+                position = skip(mBuffer, position);
+            }
+            byte[] description = readBytes(mBuffer, position);
+            position = skip(mBuffer, position);
+            String imageUrl = readString(mBuffer, position);
+            return new Book(fields[0], fields[1], fields[2], fields[3],
+                    description == null ? new byte[0] : description, imageUrl);
+        }
+    }
+}
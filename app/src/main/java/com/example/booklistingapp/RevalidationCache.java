@@ -0,0 +1,96 @@
+package com.example.booklistingapp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the ETag and Last-Modified validators of recent responses together with the
+ * {@link Book}s parsed from them, so a repeat request can be sent as a conditional GET and
+ * a 304 Not Modified answered without downloading or parsing the body again.
+ * <p>
+ * The searches of the app share the cache of {@link QueryUtils#getRevalidationCache()},
+ * and batches of the {@link BulkQueryExecutor} have their own, so they don't push the
+ * searches out.
+ */
+public final class RevalidationCache {
+
+    /**
+     * Validators and parsed books of a single response.
+     */
+    public static final class Entry {
+
+        /**
+         * Value of the ETag response header, or null.
+         */
+        public final String eTag;
+
+        /**
+         * Value of the Last-Modified response header, or null.
+         */
+        public final String lastModified;
+
+        /**
+         * Books parsed from the response body.
+         */
+        private final List<Book> mBooks;
+
+        Entry(String eTag, String lastModified, List<Book> books) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            mBooks = new ArrayList<>(books);
+        }
+
+        /**
+         * Returns a copy of the books parsed from the response body.
+         */
+        public List<Book> getBooks() {
+            return new ArrayList<>(mBooks);
+        }
+    }
+
+    private final Map<String, Entry> mEntries;
+
+    /**
+     * Constructs a new {@link RevalidationCache}.
+     *
+     * @param maxEntries is the number of request URLs remembered, the least recently used
+     *                   ones are dropped first.
+     */
+    public RevalidationCache(final int maxEntries) {
+        mEntries = new LinkedHashMap<String, Entry>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the entry stored for the request URL, or null.
+     */
+    public synchronized Entry get(String url) {
+        return mEntries.get(url);
+    }
+
+    /**
+     * Stores the validators and books of a response. Responses without any validator
+     * can't be revalidated, so they are not stored.
+     */
+    public synchronized void put(String url, String eTag, String lastModified,
+                                 List<Book> books) {
+        if (eTag == null && lastModified == null) {
+            mEntries.remove(url);
+            return;
+        }
+        mEntries.put(url, new Entry(eTag, lastModified, books));
+    }
+
+    /**
+     * Forgets every stored response.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.http.HttpResponseCache;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.squareup.picasso.LruCache;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+import com.squareup.picasso.UrlConnectionDownloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Loads book thumbnails into list items.
+ * <p>
+ * Thumbnails are decoded at the size of the list item image rather than their full size,
+ * optionally as RGB_565, and kept in a memory cache and a disk cache that are both
+ * bounded in bytes. Loads are cancelled when their row is recycled, and the thumbnails
+ * of the rows about to scroll into view can be fetched ahead of time.
+ * <p>
+ * Creating the loader installs the disk cache, which reads from disk, so it can be done
+ * in the background with {@link #initializeAsync} to keep it out of the first frame.
+ */
+public final class ThumbnailLoader {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ThumbnailLoader.class.getName();
+
+    /**
+     * Upper bound of the memory cache of decoded thumbnails, in bytes.
+     */
+    private static final int MAX_MEMORY_CACHE_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * Size of the disk cache of downloaded thumbnails, in bytes.
+     */
+    private static final long DISK_CACHE_BYTES = 10 * 1024 * 1024;
+
+    /**
+     * Name of the disk cache directory, in the app cache directory.
+     */
+    private static final String DISK_CACHE_DIR = "http-cache";
+
+    /**
+     * Tag of the thumbnails fetched ahead of time, so they can be cancelled together.
+     */
+    private static final Object PREFETCH_TAG = new Object();
+
+    private static volatile Picasso sPicasso;
+
+    /**
+     * True once {@link #deferInitialization} or {@link #initializeAsync} was called.
+     */
+    private static volatile boolean sInitializing;
+
+    private static int sThumbnailSize;
+
+    private static boolean sUseRgb565;
+
+    private ThumbnailLoader() {
+
+    }
+
+    /**
+     * Skips the thumbnails requested until {@link #initializeAsync} is done, instead of
+     * creating the {@link Picasso} instance and its disk cache on the calling thread.
+     * Call it before the first rows are bound when the loader is created later on.
+     */
+    public static void deferInitialization() {
+        sInitializing = true;
+    }
+
+    /**
+     * Creates the {@link Picasso} instance on a background thread, then runs the callback
+     * on the main thread. Thumbnails requested in the meantime are skipped, so the
+     * callback should bind them again.
+     */
+    public static void initializeAsync(Context context, final Runnable onInitialized) {
+        final Context appContext = context.getApplicationContext();
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        sInitializing = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                getPicasso(appContext);
+                mainHandler.post(onInitialized);
+            }
+        }, "ThumbnailLoader init").start();
+    }
+
+    /**
+     * Returns true if thumbnails can't be loaded yet because the loader is being created
+     * in the background.
+     */
+    private static boolean isInitializing() {
+        return sInitializing && sPicasso == null;
+    }
+
+    /**
+     * Returns the {@link Picasso} instance used for thumbnails, creating it on first use.
+     */
+    private static synchronized Picasso getPicasso(Context context) {
+        if (sPicasso == null) {
+            Context appContext = context.getApplicationContext();
+            sThumbnailSize = appContext.getResources()
+                    .getDimensionPixelSize(R.dimen.thumbnail_size);
+            sUseRgb565 = appContext.getResources().getBoolean(R.bool.thumbnail_rgb_565);
+
+            // Picasso's downloader keeps its files in the installed HttpResponseCache and
+            // only installs an unbounded-by-us one when none is, so install ours first.
+            installDiskCache(appContext);
+
+            // Take at most an eighth of the heap for decoded thumbnails.
+            int memoryCacheBytes = (int) Math.min(MAX_MEMORY_CACHE_BYTES,
+                    Runtime.getRuntime().maxMemory() / 8);
+
+            Picasso.Builder builder = new Picasso.Builder(appContext)
+                    .memoryCache(new LruCache(memoryCacheBytes))
+                    .downloader(new UrlConnectionDownloader(appContext));
+            if (sUseRgb565) {
+                builder.defaultBitmapConfig(Bitmap.Config.RGB_565);
+            }
+            sPicasso = builder.build();
+        }
+        return sPicasso;
+    }
+
+    /**
+     * Installs the HTTP response cache the thumbnails are stored in, unless one already is.
+     * The cache serves every connection of the process, so the requests of
+     * {@link QueryUtils} opt out of it and leave its 10 MB to the thumbnails.
+     */
+    private static void installDiskCache(Context context) {
+        if (HttpResponseCache.getInstalled() != null) {
+            return;
+        }
+        try {
+            HttpResponseCache.install(new File(context.getCacheDir(), DISK_CACHE_DIR),
+                    DISK_CACHE_BYTES);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem installing the thumbnail disk cache", e);
+        }
+    }
+
+    /**
+     * Returns a request for the thumbnail, decoded at the size of the list item image.
+     */
+    private static RequestCreator request(Context context, String imageUrl) {
+        Picasso picasso = getPicasso(context);
+        return picasso.load(imageUrl)
+                .resize(sThumbnailSize, sThumbnailSize)
+                .centerInside()
+                .onlyScaleDown();
+    }
+
+    /**
+     * Loads the thumbnail into the image view, replacing the load in flight for it.
+     */
+    public static void load(ImageView imageView, String imageUrl) {
+        if (TextUtils.isEmpty(imageUrl) || isInitializing()) {
+            cancel(imageView);
+            imageView.setImageDrawable(null);
+            return;
+        }
+        request(imageView.getContext(), imageUrl).into(imageView);
+    }
+
+    /**
+     * Cancels the load in flight for the image view and clears it, so a recycled row
+     * never shows the thumbnail of the book it displayed before.
+     */
+    public static void cancel(ImageView imageView) {
+        if (sPicasso != null) {
+            sPicasso.cancelRequest(imageView);
+        }
+        imageView.setImageDrawable(null);
+    }
+
+    /**
+     * Downloads and decodes the thumbnail into the memory cache, at low priority, so it is
+     * ready when its row is bound.
+     */
+    public static void prefetch(Context context, String imageUrl) {
+        if (TextUtils.isEmpty(imageUrl) || isInitializing()) {
+            return;
+        }
+        request(context, imageUrl)
+                .priority(Picasso.Priority.LOW)
+                .tag(PREFETCH_TAG)
+                .fetch();
+    }
+
+    /**
+     * Cancels every thumbnail fetched ahead of time that hasn't finished yet.
+     */
+    public static void cancelPrefetches() {
+        if (sPicasso != null) {
+            sPicasso.cancelTag(PREFETCH_TAG);
+        }
+    }
+
+    /**
+     * Downloads the thumbnail into the disk cache without decoding it, so a later load
+     * only has to read it from disk. This runs on the calling thread.
+     *
+     * @return the number of bytes read, from the network or the disk cache.
+     */
+    public static long warmDiskCache(Context context, String imageUrl) {
+        if (TextUtils.isEmpty(imageUrl)) {
+            return 0;
+        }
+        installDiskCache(context.getApplicationContext());
+        HttpURLConnection connection = null;
+        InputStream inputStream = null;
+        long bytesRead = 0;
+        try {
+            connection = (HttpURLConnection) new URL(imageUrl).openConnection();
+            connection.setConnectTimeout(FetchPolicy.getConnectTimeoutMillis());
+            connection.setReadTimeout(FetchPolicy.getReadTimeoutMillis());
+            connection.setUseCaches(true);
+            inputStream = connection.getInputStream();
+
+            // The response is only stored in the cache once the body is read to the end.
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                bytesRead += count;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem warming the thumbnail " + imageUrl, e);
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the thumbnail stream", e);
+                }
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+        return bytesRead;
+    }
+}
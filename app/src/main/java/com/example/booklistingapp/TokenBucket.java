@@ -0,0 +1,98 @@
+package com.example.booklistingapp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter. Tokens are added at a steady rate up to the capacity of the
+ * bucket, and each request takes one, so requests can burst up to the capacity and then
+ * run at the rate.
+ */
+public final class TokenBucket {
+
+    /**
+     * Time it takes to add one token, in nanoseconds.
+     */
+    private final double mNanosPerToken;
+
+    /**
+     * Maximum number of tokens the bucket holds.
+     */
+    private final double mCapacity;
+
+    /**
+     * Tokens in the bucket. Negative when tokens were reserved by callers that are
+     * waiting for them.
+     */
+    private double mTokens;
+
+    /**
+     * Time the tokens were last added, from {@link System#nanoTime()}.
+     */
+    private long mLastRefillNanos;
+
+    /**
+     * Constructs a new {@link TokenBucket} that starts full.
+     *
+     * @param permitsPerSecond is the rate the tokens are added at.
+     * @param capacity         is the maximum number of tokens, the largest burst.
+     */
+    public TokenBucket(double permitsPerSecond, int capacity) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond <= 0");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        mNanosPerToken = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        mCapacity = capacity;
+        mTokens = capacity;
+        mLastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes a token, waiting until one is available. Callers are served in the order they
+     * called, since each reserves its token before waiting.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes a token without waiting for it, for callers that wait in their own way.
+     *
+     * @return the time to wait before the token may be used, in nanoseconds.
+     */
+    public synchronized long reserve() {
+        refill();
+        mTokens -= 1;
+        return mTokens >= 0 ? 0 : (long) (-mTokens * mNanosPerToken);
+    }
+
+    /**
+     * Takes a token if one is available right away.
+     *
+     * @return true if a token was taken.
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (mTokens < 1) {
+            return false;
+        }
+        mTokens -= 1;
+        return true;
+    }
+
+    /**
+     * Adds the tokens earned since the last refill.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        mTokens = Math.min(mCapacity, mTokens + (now - mLastRefillNanos) / mNanosPerToken);
+        mLastRefillNanos = now;
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of the first pages of results fetched ahead of time by the
+ * {@link CacheWarmer}, so a search for a frequent query is answered without waiting for
+ * the network, even in a new process.
+ * <p>
+ * Each page is stored as a {@link ResultSnapshot} named after a hash of its request URL,
+ * with the URL in place of the query. Only first pages are warmed, so only their lookups
+ * count as hits or misses.
+ * <p>
+ * A warmed page is usually hours old when it is searched for, so it is shown right away
+ * and the caller revalidates it in the background once it is older than it would be
+ * allowed to be in the {@link BookCache}, see {@link PagePrefetcher}.
+ */
+public final class WarmCache {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = WarmCache.class.getName();
+
+    /**
+     * Name of the directory of the cached pages, in the app cache directory.
+     */
+    private static final String DIRECTORY_NAME = "warm_results";
+
+    /**
+     * Time a warmed page can be shown for, in milliseconds: two warming intervals, so a
+     * page outlives a skipped run.
+     */
+    private static final long TTL_MILLIS = 2 * CacheWarmer.INTERVAL_MILLIS;
+
+    /**
+     * A page read from the cache.
+     */
+    public static final class Page {
+
+        /**
+         * Books of the page.
+         */
+        public final List<Book> books;
+
+        /**
+         * Time since the page was stored, in milliseconds.
+         */
+        public final long ageMillis;
+
+        Page(List<Book> books, long ageMillis) {
+            this.books = books;
+            this.ageMillis = ageMillis;
+        }
+    }
+
+    private static volatile File sDirectory;
+
+    /**
+     * Number of first page lookups answered from the cache.
+     */
+    private static final AtomicLong sHits = new AtomicLong();
+
+    /**
+     * Number of first page lookups that had to go to the network.
+     */
+    private static final AtomicLong sMisses = new AtomicLong();
+
+    private WarmCache() {
+
+    }
+
+    /**
+     * Sets the directory of the cache. Until this is called every lookup misses without
+     * being counted.
+     */
+    public static void init(Context context) {
+        if (sDirectory == null) {
+            sDirectory = new File(context.getApplicationContext().getCacheDir(),
+                    DIRECTORY_NAME);
+        }
+    }
+
+    /**
+     * Returns the page cached for the request URL, or null if the URL isn't of a first
+     * page or there is no page young enough to be shown cached for it. This reads from
+     * disk.
+     */
+    public static Page get(String url) {
+        File directory = sDirectory;
+        if (directory == null || !isFirstPage(url)) {
+            return null;
+        }
+        File file = getFile(directory, url);
+        long ageMillis = System.currentTimeMillis() - file.lastModified();
+        if (ageMillis <= TTL_MILLIS) {
+            ResultSnapshot snapshot = ResultSnapshot.open(file);
+            if (snapshot != null && url.equals(snapshot.getQuery())) {
+                sHits.incrementAndGet();
+                return new Page(new ArrayList<>(snapshot.getBooks()), ageMillis);
+            }
+        }
+        sMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the books of the first page of a query.
+     */
+    public static void put(String url, List<Book> books) throws IOException {
+        File directory = sDirectory;
+        if (directory == null) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        ResultSnapshot.save(getFile(directory, url), url, books);
+    }
+
+    /**
+     * Deletes the pages that are too old to be shown.
+     */
+    public static void trim() {
+        File directory = sDirectory;
+        File[] files = directory == null ? null : directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long oldest = System.currentTimeMillis() - TTL_MILLIS;
+        for (File file : files) {
+            if (file.lastModified() < oldest && !file.delete()) {
+                Log.w(LOG_TAG, "Could not delete " + file);
+            }
+        }
+    }
+
+    public static long getHitCount() {
+        return sHits.get();
+    }
+
+    public static long getMissCount() {
+        return sMisses.get();
+    }
+
+    private static boolean isFirstPage(String url) {
+        return "0".equals(Uri.parse(url).getQueryParameter("startIndex"));
+    }
+
+    /**
+     * Returns the file of the page of the request URL, named after its SHA-1 hash.
+     */
+    private static File getFile(File directory, String url) {
+        StringBuilder name = new StringBuilder();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1")
+                    .digest(url.getBytes(Charset.forName("UTF-8")));
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device has SHA-1, this is only a fallback.
+            name.append(Integer.toHexString(url.hashCode()));
+        }
+        return new File(directory, name.toString());
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.booklistingapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the description cut by {@link BookDisplayModel.Formatter}, which
+ * only decodes the start of the encoded description.
+ */
+public class BookDisplayModelTest {
+
+    private static final int MAX = BookDisplayModel.Formatter.MAX_DESCRIPTION_LENGTH;
+
+    @Test
+    public void shortDescription_isKeptWhole() {
+        assertEquals("A short one", format("A short one"));
+        assertEquals("", format(""));
+    }
+
+    @Test
+    public void longAsciiDescription_isCutAtLastSpace() {
+        assertEquals(cutFromWhole(repeat("word ", 1000)), format(repeat("word ", 1000)));
+    }
+
+    @Test
+    public void longMultiByteDescription_isCutOnCharacters() {
+        // Two, three and four byte characters, whose bytes straddle the decoded limit.
+        String[] texts = {
+                repeat("été ", 2000),
+                repeat("日本語 ", 2000),
+                repeat("📚 ", 2000),
+                repeat("📚", 2000),
+                "a" + repeat("日", 2000),
+                "ab" + repeat("📚", 2000)
+        };
+        for (String text : texts) {
+            String formatted = format(text);
+            assertEquals(cutFromWhole(text), formatted);
+            assertFalse("A character was split", formatted.contains("�"));
+        }
+    }
+
+    /**
+     * Returns the description as the list item shows it.
+     */
+    private static String format(String description) {
+        Book book = new Book("id", "Title", "Author", "2001", description, null);
+        return BookDisplayModel.Formatter.formatDescription(book);
+    }
+
+    /**
+     * Returns the text cut the way the whole decoded description used to be.
+     */
+    private static String cutFromWhole(String text) {
+        if (text.length() <= MAX) {
+            return text;
+        }
+        int end = text.lastIndexOf(' ', MAX);
+        if (end <= 0) {
+            end = MAX;
+        }
+        return text.substring(0, end) + '…';
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder builder = new StringBuilder(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+}
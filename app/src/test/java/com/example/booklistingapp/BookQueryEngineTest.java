@@ -0,0 +1,221 @@
+package com.example.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the {@link BookQueryEngine}, comparing each of its results with a
+ * plain sort and filter of the same books.
+ */
+public class BookQueryEngineTest {
+
+    private static final String[] WORDS = {
+            "river", "stone", "night", "garden", "alice", "alien", "atlas", "shadow"
+    };
+
+    private static final String[] AUTHORS = {
+            "Ann Lee", "ann lee", "Bob Stone", "Zoe Night", "", null
+    };
+
+    private static final String[] DATES = {
+            "2001", "2001-05", "2001-05-17", "1999-12-31", "1999", "", null, "c. 1850", "n/a"
+    };
+
+    private BookQueryEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mEngine = new BookQueryEngine(new BookQueryEngine.Callback() {
+            @Override
+            public void onResult(List<Book> books) {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.shutdown();
+    }
+
+    @Test
+    public void parseDateKey_readsEachPrecision() {
+        assertEquals(20010000L, BookQueryEngine.parseDateKey("2001"));
+        assertEquals(20010500L, BookQueryEngine.parseDateKey("2001-05"));
+        assertEquals(20010517L, BookQueryEngine.parseDateKey("2001-05-17"));
+        assertEquals(20010507L, BookQueryEngine.parseDateKey("2001-5-7"));
+        assertEquals(20010500L, BookQueryEngine.parseDateKey("2001-05-xx"));
+    }
+
+    @Test
+    public void parseDateKey_missingOrUnparseable_isZero() {
+        assertEquals(0L, BookQueryEngine.parseDateKey(null));
+        assertEquals(0L, BookQueryEngine.parseDateKey(""));
+        assertEquals(0L, BookQueryEngine.parseDateKey("c. 1850"));
+        assertEquals(0L, BookQueryEngine.parseDateKey("n/a"));
+        assertEquals(0L, BookQueryEngine.parseDateKey("0000-01-01"));
+    }
+
+    @Test
+    public void everyOrder_matchesPlainSort() throws Exception {
+        List<Book> books = randomBooks(300, 1);
+        for (BookQueryEngine.SortOrder order : BookQueryEngine.SortOrder.values()) {
+            assertEquals(order.name(), expected(books, order, ""),
+                    mEngine.query(books, order, ""));
+        }
+    }
+
+    @Test
+    public void appendedBooks_areMergedIntoBuiltOrders() throws Exception {
+        List<Book> books = randomBooks(120, 2);
+        // Build every index on the first page, then append pages one at a time.
+        for (BookQueryEngine.SortOrder order : BookQueryEngine.SortOrder.values()) {
+            mEngine.query(new ArrayList<>(books.subList(0, 40)), order, "");
+        }
+        for (int size = 80; size <= books.size(); size += 40) {
+            List<Book> loaded = new ArrayList<>(books.subList(0, size));
+            for (BookQueryEngine.SortOrder order : BookQueryEngine.SortOrder.values()) {
+                assertEquals(order.name() + " of " + size, expected(loaded, order, ""),
+                        mEngine.query(loaded, order, ""));
+            }
+        }
+    }
+
+    @Test
+    public void replacedBooks_areSortedFromScratch() throws Exception {
+        List<Book> first = randomBooks(50, 3);
+        List<Book> second = randomBooks(30, 4);
+        mEngine.query(first, BookQueryEngine.SortOrder.TITLE, "a");
+
+        assertEquals(expected(second, BookQueryEngine.SortOrder.TITLE, "a"),
+                mEngine.query(second, BookQueryEngine.SortOrder.TITLE, "a"));
+    }
+
+    @Test
+    public void narrowedThenWidenedFilter_matchesPlainFilter() throws Exception {
+        List<Book> books = randomBooks(300, 5);
+        String[] filters = {"a", "al", "ali", "alic", "ali", "a", "", "al", "alien", "ann",
+                "ann lee", "ann", "2001", "2001-05", "stone night"};
+        for (String filter : filters) {
+            assertEquals("filter \"" + filter + "\"",
+                    expected(books, BookQueryEngine.SortOrder.NEWEST, filter),
+                    mEngine.query(books, BookQueryEngine.SortOrder.NEWEST, filter));
+        }
+    }
+
+    @Test
+    public void narrowedFilter_checksAppendedBooks() throws Exception {
+        List<Book> books = randomBooks(200, 6);
+        List<Book> firstPage = new ArrayList<>(books.subList(0, 100));
+        mEngine.query(firstPage, BookQueryEngine.SortOrder.RELEVANCE, "a");
+
+        // The narrower filter is only checked again on the first page's matches, the
+        // appended books haven't been checked at all.
+        assertEquals(expected(books, BookQueryEngine.SortOrder.RELEVANCE, "al"),
+                mEngine.query(books, BookQueryEngine.SortOrder.RELEVANCE, "al"));
+    }
+
+    @Test
+    public void largeList_isFilteredOnEveryCore() throws Exception {
+        // Past the parallel threshold, on a machine with more than one core.
+        List<Book> books = randomBooks(10000, 7);
+        String[] filters = {"a", "al", "alien", "al", "river stone"};
+        for (String filter : filters) {
+            assertEquals("filter \"" + filter + "\"",
+                    expected(books, BookQueryEngine.SortOrder.AUTHOR, filter),
+                    mEngine.query(books, BookQueryEngine.SortOrder.AUTHOR, filter));
+        }
+        List<Book> more = new ArrayList<>(books);
+        more.addAll(randomBooks(2000, 8));
+        assertEquals(expected(more, BookQueryEngine.SortOrder.AUTHOR, "river stone"),
+                mEngine.query(more, BookQueryEngine.SortOrder.AUTHOR, "river stone"));
+    }
+
+    /**
+     * Returns books with random titles, authors and dates, drawn from small sets so that
+     * many books share a key.
+     */
+    private static List<Book> randomBooks(int count, long seed) {
+        Random random = new Random(seed);
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String title = random.nextInt(10) == 0 ? null
+                    : WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(3)];
+            books.add(new Book("id-" + seed + "-" + i, title,
+                    AUTHORS[random.nextInt(AUTHORS.length)],
+                    DATES[random.nextInt(DATES.length)], "", null));
+        }
+        return books;
+    }
+
+    /**
+     * Returns the books matching every word of the filter, stable sorted in the order.
+     */
+    private static List<Book> expected(List<Book> books, final BookQueryEngine.SortOrder order,
+                                       String filter) {
+        List<Book> result = new ArrayList<>();
+        for (Book book : books) {
+            String text = lower(book.getTitle()) + '\n' + lower(book.getAuthor()) + '\n'
+                    + lower(book.getPublishDate());
+            boolean matches = true;
+            for (String term : filter.isEmpty() ? new String[0] : filter.split(" ")) {
+                matches &= text.contains(term);
+            }
+            if (matches) {
+                result.add(book);
+            }
+        }
+        // Collections.sort is stable, so equal books keep their load order.
+        Collections.sort(result, new Comparator<Book>() {
+            @Override
+            public int compare(Book a, Book b) {
+                switch (order) {
+                    case NEWEST:
+                        return compareDates(a, b, true);
+                    case OLDEST:
+                        return compareDates(a, b, false);
+                    case AUTHOR:
+                        return compareMissingLast(lower(a.getAuthor()), lower(b.getAuthor()));
+                    case TITLE:
+                        return compareMissingLast(lower(a.getTitle()), lower(b.getTitle()));
+                    default:
+                        return 0;
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Compares the publish dates of the books, the books without a date last.
+     */
+    private static int compareDates(Book a, Book b, boolean descending) {
+        long keyA = BookQueryEngine.parseDateKey(a.getPublishDate());
+        long keyB = BookQueryEngine.parseDateKey(b.getPublishDate());
+        if (keyA == 0 || keyB == 0) {
+            return keyA == keyB ? 0 : (keyA == 0 ? 1 : -1);
+        }
+        int result = Long.compare(keyA, keyB);
+        return descending ? -result : result;
+    }
+
+    private static int compareMissingLast(String a, String b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return a.isEmpty() == b.isEmpty() ? 0 : (a.isEmpty() ? 1 : -1);
+        }
+        return a.compareTo(b);
+    }
+
+    private static String lower(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+}
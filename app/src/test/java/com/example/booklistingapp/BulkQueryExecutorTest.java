@@ -0,0 +1,166 @@
+package com.example.booklistingapp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the {@link BulkQueryExecutor}, with a fake {@link
+ * BulkQueryExecutor.Transport} in place of the network.
+ */
+public class BulkQueryExecutorTest {
+
+    private static final String BASE_URL = "http://127.0.0.1/books/v1/volumes";
+
+    private BulkQueryExecutor mExecutor;
+
+    @After
+    public void tearDown() {
+        if (mExecutor != null) {
+            mExecutor.cancel();
+            mExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void rateLimit_chargesEveryAttempt() throws Exception {
+        // The first attempt of each query fails with a 503 that asks for no backoff.
+        final ConcurrentHashMap<String, Boolean> failed = new ConcurrentHashMap<>();
+        mExecutor = new BulkQueryExecutor(BASE_URL, 10, 4, 20, 1,
+                new BulkQueryExecutor.Transport() {
+                    @Override
+                    public List<Book> fetch(String requestUrl,
+                                            BulkQueryExecutor.Cancellation cancellation)
+                            throws IOException {
+                        if (failed.putIfAbsent(requestUrl, true) == null) {
+                            throw new HttpStatusException(503, 0);
+                        }
+                        return new ArrayList<>();
+                    }
+                });
+        long start = System.nanoTime();
+
+        Results results = run(queries(10));
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(10, results.count.get());
+        assertEquals(0, mExecutor.getFailedCount());
+        assertEquals(20, mExecutor.getAttemptCount());
+        // 20 attempts at 20 per second, after a burst of one.
+        assertTrue("20 attempts took " + elapsedMillis + " ms", elapsedMillis >= 900);
+    }
+
+    @Test
+    public void cancel_stopsRequestsAndTokenWaits() throws Exception {
+        final CountDownLatch sent = new CountDownLatch(1);
+        final AtomicInteger requests = new AtomicInteger();
+        // One request per second: the first is sent, the others wait for a token.
+        mExecutor = new BulkQueryExecutor(BASE_URL, 10, 4, 1, 1,
+                new BulkQueryExecutor.Transport() {
+                    @Override
+                    public List<Book> fetch(String requestUrl,
+                                            BulkQueryExecutor.Cancellation cancellation)
+                            throws IOException {
+                        requests.incrementAndGet();
+                        final CountDownLatch cancelled = new CountDownLatch(1);
+                        cancellation.setOnCancelListener(new Runnable() {
+                            @Override
+                            public void run() {
+                                cancelled.countDown();
+                            }
+                        });
+                        sent.countDown();
+                        try {
+                            cancelled.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        throw new IOException("Request cancelled");
+                    }
+                });
+        Results results = new Results();
+        mExecutor.execute(queries(20), results);
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        mExecutor.cancel();
+
+        assertTrue("The batch didn't finish", results.finished.await(500, TimeUnit.MILLISECONDS));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Cancelling took " + elapsedMillis + " ms", elapsedMillis < 500);
+        assertEquals(1, requests.get());
+        assertEquals("Cancelled queries were reported", 0, results.count.get());
+        assertEquals(0, mExecutor.getPendingCount());
+    }
+
+    @Test
+    public void failingBatch_opensItsOwnCircuit() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        mExecutor = new BulkQueryExecutor(BASE_URL, 10, 1, 1000, 1000,
+                new BulkQueryExecutor.Transport() {
+                    @Override
+                    public List<Book> fetch(String requestUrl,
+                                            BulkQueryExecutor.Cancellation cancellation)
+                            throws IOException {
+                        requests.incrementAndGet();
+                        throw new HttpStatusException(503, 0);
+                    }
+                });
+
+        Results results = run(queries(8));
+
+        // Five failed queries open the circuit, and the last three are refused.
+        assertEquals(8, results.count.get());
+        assertEquals(8, mExecutor.getFailedCount());
+        assertEquals(5 * FetchPolicy.getMaxAttempts(), requests.get());
+        assertEquals("The searches of the app were refused too",
+                CircuitBreaker.State.CLOSED, FetchPolicy.getCircuitBreaker().getState());
+    }
+
+    /**
+     * Runs the batch and waits for it to finish.
+     */
+    private Results run(List<String> queries) throws InterruptedException {
+        Results results = new Results();
+        mExecutor.execute(queries, results);
+        assertTrue("The batch didn't finish", results.finished.await(10, TimeUnit.SECONDS));
+        return results;
+    }
+
+    private static List<String> queries(int count) {
+        List<String> queries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            queries.add("isbn:" + (9780000000000L + i));
+        }
+        return queries;
+    }
+
+    /**
+     * Counts the results of a batch.
+     */
+    private static final class Results implements BulkQueryExecutor.Callback {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        @Override
+        public void onResult(String query, List<Book> books) {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public void onFinished() {
+            finished.countDown();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.booklistingapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.example.booklistingapp.FetchProfile.Profile.LIGHT;
+import static com.example.booklistingapp.FetchProfile.Profile.RICH;
+import static com.example.booklistingapp.FetchProfile.Profile.STANDARD;
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of how the {@link FetchProfile} moves between profiles as responses
+ * are recorded, and of the margin it needs to move.
+ */
+public class FetchProfileTest {
+
+    private static int sNetworkCount;
+
+    /**
+     * Network of the test, a new one for each test so that they start without estimates.
+     */
+    private String mNetwork;
+
+    @Before
+    public void setUp() {
+        mNetwork = "test:" + sNetworkCount++;
+    }
+
+    @Test
+    public void firstSamples_followConnectionType() {
+        assertEquals(RICH, FetchProfile.select(mNetwork, RICH));
+        for (int i = 0; i < 2; i++) {
+            recordRtt(2000, 1);
+            assertEquals(RICH, FetchProfile.select(mNetwork, RICH));
+        }
+
+        recordRtt(2000, 1);
+        assertEquals(LIGHT, FetchProfile.select(mNetwork, RICH));
+    }
+
+    @Test
+    public void slowSamples_stepProfileDown() {
+        FetchProfile.select(mNetwork, RICH);
+        recordRtt(300, 3);
+        assertEquals(STANDARD, FetchProfile.select(mNetwork, RICH));
+
+        recordRtt(1200, 20);
+        assertEquals(LIGHT, FetchProfile.select(mNetwork, RICH));
+    }
+
+    @Test
+    public void samplesJustPastThreshold_keepProfile() {
+        FetchProfile.select(mNetwork, RICH);
+        recordRtt(150, 3);
+        assertEquals(RICH, FetchProfile.select(mNetwork, RICH));
+
+        // Slower than the fast threshold of 200 ms, but not by the margin.
+        recordRtt(220, 20);
+        assertEquals(RICH, FetchProfile.select(mNetwork, RICH));
+    }
+
+    @Test
+    public void fasterSamples_stepUpOnlyPastMargin() {
+        FetchProfile.select(mNetwork, STANDARD);
+        recordRtt(1200, 3);
+        assertEquals(LIGHT, FetchProfile.select(mNetwork, STANDARD));
+
+        // Under the slow threshold of 800 ms, but not once 1.25 times slower.
+        recordRtt(700, 20);
+        assertEquals(LIGHT, FetchProfile.select(mNetwork, STANDARD));
+
+        recordRtt(600, 20);
+        assertEquals(STANDARD, FetchProfile.select(mNetwork, STANDARD));
+
+        recordRtt(170, 20);
+        assertEquals(STANDARD, FetchProfile.select(mNetwork, STANDARD));
+
+        recordRtt(150, 20);
+        assertEquals(RICH, FetchProfile.select(mNetwork, STANDARD));
+    }
+
+    @Test
+    public void slowBandwidth_stepsProfileDown() {
+        FetchProfile.select(mNetwork, RICH);
+        // Fast round trips, but 48 KB bodies read in 2 seconds.
+        for (int i = 0; i < 3; i++) {
+            FetchProfile.recordResponse(TimeUnit.MILLISECONDS.toNanos(100), 48 * 1024,
+                    TimeUnit.SECONDS.toNanos(2));
+        }
+
+        assertEquals(LIGHT, FetchProfile.select(mNetwork, RICH));
+        assertEquals(24 * 1024, FetchProfile.getBandwidthEstimate());
+    }
+
+    @Test
+    public void networkChange_resetsEstimates() {
+        FetchProfile.select(mNetwork, RICH);
+        recordRtt(2000, 3);
+        assertEquals(LIGHT, FetchProfile.select(mNetwork, RICH));
+
+        String otherNetwork = mNetwork + ":other";
+        assertEquals(RICH, FetchProfile.select(otherNetwork, RICH));
+        assertEquals(-1, FetchProfile.getRttEstimateMillis());
+        assertEquals(-1, FetchProfile.getBandwidthEstimate());
+
+        // The new network needs samples of its own before they count.
+        recordRtt(2000, 2);
+        assertEquals(RICH, FetchProfile.select(otherNetwork, RICH));
+    }
+
+    /**
+     * Records responses with the given round trip time and a body too small to estimate
+     * the bandwidth from.
+     */
+    private static void recordRtt(long rttMillis, int count) {
+        for (int i = 0; i < count; i++) {
+            FetchProfile.recordResponse(TimeUnit.MILLISECONDS.toNanos(rttMillis), 512,
+                    TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android class of the same name. Books are never parcelled in the
+ * benchmarks, so every method throws.
+ */
+public final class Parcel {
+
+    private Parcel() {
+
+    }
+
+    public void writeString(String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    public String readString() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void writeByteArray(byte[] value) {
+        throw new UnsupportedOperationException();
+    }
+
+    public byte[] createByteArray() {
+        throw new UnsupportedOperationException();
+    }
+}
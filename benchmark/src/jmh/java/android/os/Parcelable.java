@@ -0,0 +1,19 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android interface of the same name. Books are never parcelled in
+ * the benchmarks, it only lets {@code Book} compile.
+ */
+public interface Parcelable {
+
+    int describeContents();
+
+    void writeToParcel(Parcel dest, int flags);
+
+    interface Creator<T> {
+
+        T createFromParcel(Parcel source);
+
+        T[] newArray(int size);
+    }
+}
@@ -0,0 +1,78 @@
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * JVM stand-in for the Android class of the same name, so the app's parser can be
+ * benchmarked without a device.
+ * <p>
+ * Android's JsonReader was derived from Gson's streaming reader and has the same API and
+ * algorithm, so this delegates to Gson. Only the methods the app uses are provided.
+ */
+public final class JsonReader implements Closeable {
+
+    private final com.google.gson.stream.JsonReader mDelegate;
+
+    public JsonReader(Reader in) {
+        mDelegate = new com.google.gson.stream.JsonReader(in);
+    }
+
+    public void beginArray() throws IOException {
+        mDelegate.beginArray();
+    }
+
+    public void endArray() throws IOException {
+        mDelegate.endArray();
+    }
+
+    public void beginObject() throws IOException {
+        mDelegate.beginObject();
+    }
+
+    public void endObject() throws IOException {
+        mDelegate.endObject();
+    }
+
+    public boolean hasNext() throws IOException {
+        return mDelegate.hasNext();
+    }
+
+    public JsonToken peek() throws IOException {
+        return JsonToken.valueOf(mDelegate.peek().name());
+    }
+
+    public String nextName() throws IOException {
+        return mDelegate.nextName();
+    }
+
+    public String nextString() throws IOException {
+        return mDelegate.nextString();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        return mDelegate.nextBoolean();
+    }
+
+    public void nextNull() throws IOException {
+        mDelegate.nextNull();
+    }
+
+    public long nextLong() throws IOException {
+        return mDelegate.nextLong();
+    }
+
+    public int nextInt() throws IOException {
+        return mDelegate.nextInt();
+    }
+
+    public void skipValue() throws IOException {
+        mDelegate.skipValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDelegate.close();
+    }
+}
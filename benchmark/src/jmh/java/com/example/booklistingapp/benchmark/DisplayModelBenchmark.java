@@ -0,0 +1,59 @@
+package com.example.booklistingapp.benchmark;
+
+import com.example.booklistingapp.Book;
+import com.example.booklistingapp.BookDisplayModel;
+import com.example.booklistingapp.BookJsonParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures building the list item text of parsed books: the display models built on the
+ * loader thread, and the description decoded when a row is bound.
+ */
+@State(Scope.Benchmark)
+public class DisplayModelBenchmark {
+
+    @Param({"10", "40", "1000"})
+    public int volumes;
+
+    private List<Book> mBooks;
+
+    private BookDisplayModel.Formatter mFormatter;
+
+    @Setup
+    public void setUp() throws IOException {
+        mBooks = new ArrayList<>();
+        InputStream inputStream = Fixtures.open(
+                Fixtures.body(volumes, Fixtures.IDENTITY), Fixtures.IDENTITY);
+        try {
+            BookJsonParser.readBooks(inputStream, mBooks);
+        } finally {
+            inputStream.close();
+        }
+        mFormatter = new BookDisplayModel.Formatter(Fixtures.BY_AUTHOR, Fixtures.RELEASED);
+    }
+
+    @Benchmark
+    public void format(Blackhole blackhole) {
+        for (Book book : mBooks) {
+            blackhole.consume(mFormatter.format(book));
+        }
+    }
+
+    @Benchmark
+    public void formatDescription(Blackhole blackhole) {
+        for (Book book : mBooks) {
+            blackhole.consume(BookDisplayModel.Formatter.formatDescription(book));
+        }
+    }
+}
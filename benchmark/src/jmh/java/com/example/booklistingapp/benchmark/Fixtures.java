@@ -0,0 +1,96 @@
+package com.example.booklistingapp.benchmark;
+
+import com.example.booklistingapp.CountingInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Google Books volume search responses used by the benchmarks.
+ * <p>
+ * The fixtures hold 10, 40 and 1000 volumes, with every field the API returns, including
+ * the ones the parser skips. The API returns at most 40 volumes per page, the 1000 volume
+ * fixture stands for a long scrolling session and is stored gzipped.
+ */
+final class Fixtures {
+
+    /**
+     * Content encoding of a response body sent as is.
+     */
+    static final String IDENTITY = "identity";
+
+    /**
+     * Content encoding of a gzipped response body.
+     */
+    static final String GZIP = "gzip";
+
+    /**
+     * Localized prefixes of the list item, as in the app's default strings.
+     */
+    static final String BY_AUTHOR = "By ";
+    static final String RELEASED = "Released: ";
+
+    private Fixtures() {
+
+    }
+
+    /**
+     * Returns the body of the response with the given number of volumes, in the given
+     * content encoding.
+     */
+    static byte[] body(int volumes, String encoding) throws IOException {
+        byte[] json = json(volumes);
+        return GZIP.equals(encoding) ? gzip(json) : json;
+    }
+
+    /**
+     * Returns the stream the app parses the body from: the bytes read are counted, and a
+     * gzipped body is inflated.
+     */
+    static InputStream open(byte[] body, String encoding) throws IOException {
+        InputStream inputStream = new CountingInputStream(new ByteArrayInputStream(body));
+        if (GZIP.equals(encoding)) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        return inputStream;
+    }
+
+    /**
+     * Returns the JSON of the response with the given number of volumes.
+     */
+    private static byte[] json(int volumes) throws IOException {
+        InputStream inputStream = Fixtures.class.getResourceAsStream(
+                "/fixtures/volumes-" + volumes + ".json");
+        if (inputStream == null) {
+            inputStream = Fixtures.class.getResourceAsStream(
+                    "/fixtures/volumes-" + volumes + ".json.gz");
+            if (inputStream == null) {
+                throw new IOException("No fixture with " + volumes + " volumes");
+            }
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.booklistingapp.benchmark;
+
+import com.example.booklistingapp.Book;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the heap a list of {@link Book}s retains, against books that hold every field
+ * as its own String, the way they did before descriptions were kept encoded and authors
+ * and dates interned.
+ * <p>
+ * The books are built the way the parser builds them, with a new String for every field
+ * read: descriptions of 200 to 1600 characters, 250 distinct authors and 40 distinct
+ * years. Run it with ./gradlew :benchmark:footprint, which measures once with compressed
+ * strings, like ART from 8.0, and once with two-byte strings, like ART before 8.0 or
+ * text that isn't Latin-1.
+ */
+public final class Footprint {
+
+    private static final int BOOKS = 3000;
+
+    private static final int AUTHORS = 250;
+
+    private static final int YEARS = 40;
+
+    private static final int ROUNDS = 5;
+
+    /**
+     * Book as it was before, with every field a String of its own.
+     */
+    private static final class StringBook {
+
+        final String id;
+        final String title;
+        final String author;
+        final String publishDate;
+        final String description;
+        final String imageUrl;
+
+        StringBook(String id, String title, String author, String publishDate,
+                   String description, String imageUrl) {
+            this.id = id;
+            this.title = title;
+            this.author = author;
+            this.publishDate = publishDate;
+            this.description = description;
+            this.imageUrl = imageUrl;
+        }
+    }
+
+    private Footprint() {
+
+    }
+
+    public static void main(String[] args) {
+        long before = Long.MAX_VALUE;
+        long after = Long.MAX_VALUE;
+        // Keep the smallest of a few rounds, a late collection only ever adds to it.
+        for (int round = 0; round < ROUNDS; round++) {
+            before = Math.min(before, measure(false));
+            after = Math.min(after, measure(true));
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "%d books: before %d B/book, after %d B/book", BOOKS, before / BOOKS,
+                after / BOOKS));
+    }
+
+    /**
+     * Returns the bytes retained by a list of books after a full collection.
+     *
+     * @param encoded is true to build {@link Book}s, false for {@link StringBook}s.
+     */
+    private static long measure(boolean encoded) {
+        long baseline = usedHeap();
+        List<Object> books = build(encoded);
+        long retained = usedHeap() - baseline;
+        if (books.size() != BOOKS) {
+            throw new IllegalStateException("Built " + books.size() + " books");
+        }
+        return retained;
+    }
+
+    private static List<Object> build(boolean encoded) {
+        Random random = new Random(42);
+        List<Object> books = new ArrayList<>(BOOKS);
+        for (int i = 0; i < BOOKS; i++) {
+            // Copies, like the strings a JsonReader returns for repeated values.
+            String id = new String("vol" + i);
+            String title = new String("Title of volume " + i);
+            String author = new String("Author " + random.nextInt(AUTHORS));
+            String publishDate = new String(String.valueOf(1980 + random.nextInt(YEARS)));
+            String description = words(random, 200 + random.nextInt(1401));
+            String imageUrl = new String("http://books.google.com/books/content?id=vol" + i
+                    + "&printsec=frontcover&img=1&zoom=5");
+            books.add(encoded
+                    ? new Book(id, title, author, publishDate, description, imageUrl)
+                    : new StringBook(id, title, author, publishDate, description, imageUrl));
+        }
+        return books;
+    }
+
+    /**
+     * Returns random lower case words of the given total length.
+     */
+    private static String words(Random random, int length) {
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(26));
+        }
+        return new String(text);
+    }
+
+    /**
+     * Returns the heap used after collecting everything unreachable.
+     */
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.booklistingapp.benchmark;
+
+import com.example.booklistingapp.Book;
+import com.example.booklistingapp.BookDisplayModel;
+import com.example.booklistingapp.BookJsonParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures extracting the {@link Book}s from a response, and the whole loader thread
+ * work for a response: parsing it and building the display models.
+ */
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"10", "40", "1000"})
+    public int volumes;
+
+    @Param({Fixtures.IDENTITY, Fixtures.GZIP})
+    public String encoding;
+
+    private byte[] mBody;
+
+    private BookDisplayModel.Formatter mFormatter;
+
+    @Setup
+    public void setUp() throws IOException {
+        mBody = Fixtures.body(volumes, encoding);
+        mFormatter = new BookDisplayModel.Formatter(Fixtures.BY_AUTHOR, Fixtures.RELEASED);
+    }
+
+    @Benchmark
+    public List<Book> parse() throws IOException {
+        return readBooks();
+    }
+
+    @Benchmark
+    public List<Book> parseAndPrepare() throws IOException {
+        List<Book> books = readBooks();
+        mFormatter.prepare(books);
+        return books;
+    }
+
+    private List<Book> readBooks() throws IOException {
+        List<Book> books = new ArrayList<>();
+        InputStream inputStream = Fixtures.open(mBody, encoding);
+        try {
+            BookJsonParser.readBooks(inputStream, books);
+        } finally {
+            inputStream.close();
+        }
+        if (books.size() != volumes) {
+            throw new IllegalStateException("Parsed " + books.size() + " of " + volumes);
+        }
+        return books;
+    }
+}
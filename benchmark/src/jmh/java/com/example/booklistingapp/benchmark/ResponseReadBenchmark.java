@@ -0,0 +1,45 @@
+package com.example.booklistingapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures reading a response body to the end without parsing it, as the app does to
+ * drain a response, so the cost of the stream stack can be told apart from parsing.
+ */
+@State(Scope.Benchmark)
+public class ResponseReadBenchmark {
+
+    @Param({"10", "40", "1000"})
+    public int volumes;
+
+    @Param({Fixtures.IDENTITY, Fixtures.GZIP})
+    public String encoding;
+
+    private byte[] mBody;
+
+    private final byte[] mBuffer = new byte[4096];
+
+    @Setup
+    public void setUp() throws IOException {
+        mBody = Fixtures.body(volumes, encoding);
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        InputStream inputStream = Fixtures.open(mBody, encoding);
+        long count = 0;
+        int read;
+        while ((read = inputStream.read(mBuffer)) != -1) {
+            count += read;
+        }
+        inputStream.close();
+        return count;
+    }
+}